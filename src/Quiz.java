@@ -16,18 +16,55 @@ public class Quiz
      *  Instead of calling System.out.println() this function should be used. */
     public static void Print(String s)
     {
+        if(!m_logging)
+            return;
         String threadName = Thread.currentThread().getName();
         System.out.println("[" + threadName + "] " + s);
     }
 
+    /** Debug messages on/off. */
+    private static volatile boolean m_logging = true;
+
+    /** Enable or disable the debug messages of Print(), e.g. for a server with many games.
+     *  @param logging false to suppress the messages. */
+    public static void setLogging(boolean logging)
+    {
+        m_logging = logging;
+    }
+
+    /** Are the debug messages enabled? Callers can skip building expensive messages.
+     *  @return true if Print() writes messages. */
+    public static boolean isLogging()
+    {
+        return m_logging;
+    }
+
+    /** How often the database directory is checked for changes [ms]. */
+    private static final long DATABASE_CHECK_INTERVAL = 2000;
+
+    /** Start the game.
+     *  @param args Optional: a directory with question databases (e.g. en.qdb).
+     *  These are used instead of the databases in the jar and are reloaded when they change. */
     public static void main(String[] args)
     {
+        if(args.length > 0)
+        {
+            java.io.File directory = new java.io.File(args[0]);
+            javaquiz.QuizDB.setDatabaseDirectory(directory);
+            new javaquiz.QuizDBWatcher(directory, DATABASE_CHECK_INTERVAL).start();
+        }
+
+        // parse the question databases in the background while
+        // the window is created and the images are loaded.
+        javaquiz.QuizDB.warmUp();
+
         javaquiz.QuizModel q = new javaquiz.QuizModel();
-        javaquiz.QuizController ctrl = new javaquiz.QuizController();
+        // event driven: the game only updates during animations, state timeouts and clicks
+        javaquiz.QuizController ctrl = new javaquiz.QuizController(new javaquiz.QuizTimingWheel("Quiz update"));
         javaquiz.QuizViewSwing view = new javaquiz.QuizViewSwing();
 
         ctrl.init(q, view, javaquiz.QuizLanguage.LanguageID.ENGLISH); // start the game
-        Print("Startup complete. Handing over to the game timer update thread.");
+        Print("Startup complete. Handing over to the game update thread.");
     }
 }
 
@@ -0,0 +1,534 @@
+package javaquiz;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Command line benchmarks for the question database and the game engine.
+ *
+ * Usage:
+ *
+ *      java -cp quiz.jar javaquiz.QuizBenchmark parse [lines]
+ *      java -cp quiz.jar javaquiz.QuizBenchmark memory [lines]
+ *      java -cp quiz.jar javaquiz.QuizBenchmark draw [threads]
+ *      java -cp quiz.jar javaquiz.QuizBenchmark sessions [count] [mode] [lazy]
+ *      java -cp quiz.jar javaquiz.QuizBenchmark commands [count]
+ *
+ * parse: Generates a question database with the given number of lines
+ * (default: one million) in a temporary file and compares the parse
+ * throughput of the old String.split loop with QuizDBParser (sequential
+ * and parallel load mode).
+ *
+ * memory: Loads a generated database with String questions and with
+ * QuizCompactQuestion and reports the heap per question, both as layout
+ * estimate (object sizes like JOL would report them for a 64 bit VM with
+ * compressed references) and as measured heap growth.
+ *
+ * draw: Starts games (draws of a question set from the English database)
+ * on the given number of threads (default: number of CPUs) for a few
+ * seconds and reports the game starts per second with shuffled decks
+ * and with independent random draws.
+ *
+ * sessions: Creates the given number of games (default: 10000) in a
+ * QuizSessionManager, lets simulated players answer for a few seconds
+ * and reports the games played, the slowest tick and the CPU time of
+ * the manager threads. Then the players stop answering and the CPU time
+ * of the waiting games is measured. The mode is a
+ * QuizSessionManager.TickMode (default: all modes one after the other).
+ * With "lazy" the games load their questions one level at a time (see
+ * QuizModel.setLazyLoading()).
+ *
+ * commands: Sends the given number of commands (default: 10 million)
+ * from one thread to another, as command strings through a
+ * LinkedBlockingQueue (parsed on the receiving side) and as ordinals
+ * through a QuizCommandQueue, and reports the time per command.
+ */
+public class QuizBenchmark
+{
+    /** How often each benchmark is repeated (the first runs warm up the JIT). */
+    private final static int RUNS = 5;
+    /** Duration of one draw benchmark run [ms]. */
+    private final static long DRAW_TIME = 1000;
+    /** Duration of the session benchmark [ms]. */
+    private final static long SESSION_TIME = 20000;
+    /** Capacity of the queues in the command benchmark. */
+    private final static int COMMAND_QUEUE_SIZE = 1024;
+    /** Duration of the idle part of the session benchmark [ms]. */
+    private final static long IDLE_TIME = 5000;
+
+    /** Only static methods. */
+    private QuizBenchmark()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        String mode = args.length > 0 ? args[0] : "";
+        if(mode.equals("parse"))
+        {
+            int lines = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+            benchmarkParse(lines);
+        }
+        else if(mode.equals("memory"))
+        {
+            int lines = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+            benchmarkMemory(lines);
+        }
+        else if(mode.equals("draw"))
+        {
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            benchmarkDraw(threads);
+        }
+        else if(mode.equals("sessions"))
+        {
+            int count = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+            QuizSessionManager.TickMode[] modes = QuizSessionManager.TickMode.values();
+            if(args.length > 2 && !args[2].equals("all"))
+                modes = new QuizSessionManager.TickMode[] { QuizSessionManager.TickMode.valueOf(args[2].toUpperCase()) };
+            boolean lazy = args.length > 3 && args[3].equals("lazy");
+            for(int i=0;i<modes.length;i++)
+                benchmarkSessions(count, modes[i], lazy);
+        }
+        else if(mode.equals("commands"))
+        {
+            int count = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+            benchmarkCommands(count);
+        }
+        else
+        {
+            System.out.println("Usage: java -cp quiz.jar javaquiz.QuizBenchmark parse|memory [lines]");
+            System.out.println("       java -cp quiz.jar javaquiz.QuizBenchmark draw [threads]");
+            System.out.println("       java -cp quiz.jar javaquiz.QuizBenchmark sessions [count] [all|shared_timer|deadlines|thread_per_session] [lazy]");
+            System.out.println("       java -cp quiz.jar javaquiz.QuizBenchmark commands [count]");
+        }
+    }
+
+    /** Compare the parse throughput of the split based loop and QuizDBParser.
+     * @param lines Number of lines in the generated database.
+     * @throws IOException if the temporary file can't be written. */
+    private static void benchmarkParse(int lines) throws IOException
+    {
+        File file = generateDatabase(lines);
+        try
+        {
+            double mb = file.length()/(1024.0*1024.0);
+            Quiz.Print("Generated " + lines + " lines (" + (int)mb + " MB)");
+
+            for(int run=0;run<RUNS;run++)
+            {
+                long start = System.nanoTime();
+                int countSplit = parseWithSplit(file);
+                long splitTime = System.nanoTime() - start;
+
+                QuizDB.setLoadMode(QuizDB.LoadMode.SEQUENTIAL);
+                start = System.nanoTime();
+                int countParser = loadFile(file);
+                long parserTime = System.nanoTime() - start;
+
+                QuizDB.setLoadMode(QuizDB.LoadMode.PARALLEL);
+                start = System.nanoTime();
+                int countParallel = loadFile(file);
+                long parallelTime = System.nanoTime() - start;
+                QuizDB.setLoadMode(QuizDB.LoadMode.SEQUENTIAL);
+
+                assert countSplit == countParser && countParser == countParallel;
+                Quiz.Print("Run " + (run+1) + ": split " + throughput(mb, splitTime) + " MB/s, " +
+                           "QuizDBParser " + throughput(mb, parserTime) + " MB/s, " +
+                           "parallel " + throughput(mb, parallelTime) + " MB/s " +
+                           "(" + countSplit + "/" + countParser + "/" + countParallel + " questions)");
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /** Compare the command transfer through a string queue and through QuizCommandQueue.
+     * @param count Number of commands per run.
+     * @throws InterruptedException if the benchmark is interrupted. */
+    private static void benchmarkCommands(final int count) throws InterruptedException
+    {
+        final QuizCommand[] commands = QuizCommand.values();
+        for(int run=0;run<RUNS;run++)
+        {
+            // old: strings in a LinkedBlockingQueue
+            final LinkedBlockingQueue<String> strings = new LinkedBlockingQueue<String>(COMMAND_QUEUE_SIZE);
+            Thread producer = new Thread(new Runnable() {
+                public void run()
+                {
+                    for(int i=0;i<count;i++)
+                    {
+                        String cmd = commands[i % commands.length].getString();
+                        while(!strings.offer(cmd))
+                            Thread.yield();
+                    }
+                }
+            });
+            long start = System.nanoTime();
+            producer.start();
+            long check = 0;
+            for(int i=0;i<count;i++)
+            {
+                String cmd;
+                while((cmd = strings.poll()) == null)
+                    Thread.yield();
+                check += QuizCommand.parse(cmd).ordinal();
+            }
+            long stringTime = System.nanoTime() - start;
+            producer.join();
+
+            // new: ordinals in a QuizCommandQueue
+            final QuizCommandQueue queue = new QuizCommandQueue(COMMAND_QUEUE_SIZE);
+            producer = new Thread(new Runnable() {
+                public void run()
+                {
+                    for(int i=0;i<count;i++)
+                    {
+                        int cmd = commands[i % commands.length].ordinal();
+                        while(!queue.offer(cmd))
+                            Thread.yield();
+                    }
+                }
+            });
+            start = System.nanoTime();
+            producer.start();
+            for(int i=0;i<count;i++)
+            {
+                int cmd;
+                while((cmd = queue.poll()) < 0)
+                    Thread.yield();
+                check -= QuizCommand.fromOrdinal(cmd).ordinal();
+            }
+            long queueTime = System.nanoTime() - start;
+            producer.join();
+
+            assert check == 0;
+            Quiz.Print("Run " + (run+1) + ": " + count + " commands, " +
+                       "LinkedBlockingQueue<String> " + Math.round(stringTime/(double)count) + " ns/command, " +
+                       "QuizCommandQueue " + Math.round(queueTime/(double)count) + " ns/command");
+        }
+    }
+
+    /** Measure the game starts per second with concurrent draws.
+     * @param threads Number of drawing threads.
+     * @throws InterruptedException if the benchmark is interrupted. */
+    private static void benchmarkDraw(int threads) throws InterruptedException
+    {
+        final String fileName = QuizLanguage.getLanguage(QuizLanguage.LanguageID.ENGLISH)
+                                .getString(QuizLanguage.StringID.DATABASEFILE);
+        QuizDBCache.get(fileName); // load before the measurement
+
+        boolean nonRepeating = QuizDB.isNonRepeating();
+        boolean[] modes = {true, false};
+        for(int run=0;run<RUNS;run++)
+        {
+            for(int m=0;m<modes.length;m++)
+            {
+                QuizDB.setNonRepeating(modes[m]);
+                final AtomicLong games = new AtomicLong();
+                final long end = System.nanoTime() + DRAW_TIME*1000000L;
+                Thread[] workers = new Thread[threads];
+                for(int t=0;t<threads;t++)
+                {
+                    workers[t] = new Thread(new Runnable() {
+                        public void run()
+                        {
+                            QuizDB db = new QuizDB();
+                            QuizQuestion[] questions = new QuizQuestion[QuizDB.getMaxDifficulty()];
+                            long count = 0;
+                            while(System.nanoTime() < end)
+                            {
+                                db.getRandomQuestions(fileName, questions);
+                                count++;
+                            }
+                            games.addAndGet(count);
+                        }
+                    }, "QuizBenchmark draw " + t);
+                    workers[t].start();
+                }
+                for(int t=0;t<threads;t++)
+                    workers[t].join();
+                Quiz.Print("Run " + (run+1) + ": " + (modes[m] ? "decks" : "random") + ", " +
+                           threads + " threads: " + (games.get()*1000/DRAW_TIME) + " game starts/s");
+            }
+        }
+        QuizDB.setNonRepeating(nonRepeating);
+    }
+
+    /** Run many games in a session manager.
+     * @param count Number of concurrent sessions.
+     * @param mode How the manager updates the sessions.
+     * @param lazy Load the questions of the games one level at a time.
+     * @throws InterruptedException if the benchmark is interrupted. */
+    private static void benchmarkSessions(int count, QuizSessionManager.TickMode mode, boolean lazy)
+        throws InterruptedException
+    {
+        Quiz.Print("Starting " + count + " sessions (" + mode + (lazy ? ", lazy loading" : "") + ")");
+        QuizSessionManager manager = new QuizSessionManager(mode, Runtime.getRuntime().availableProcessors());
+        manager.setLazyLoading(lazy);
+        Quiz.setLogging(false);
+        long start = System.nanoTime();
+        QuizSessionManager.Session[] sessions = new QuizSessionManager.Session[count];
+        for(int i=0;i<count;i++)
+            sessions[i] = manager.create(QuizLanguage.LanguageID.values()[i % 2]);
+        long createTime = System.nanoTime() - start;
+
+        // simulated players: answer every question as soon as it is asked,
+        // mostly right, and start a new game when the game is over.
+        Random random = new Random(42);
+        int games = 0;
+        int answers = 0;
+        long cpuStart = getOtherThreadsCpuTime();
+        long end = System.currentTimeMillis() + SESSION_TIME;
+        while(System.currentTimeMillis() < end)
+        {
+            for(int i=0;i<count;i++)
+            {
+                QuizModel model = sessions[i].getModel();
+                QuizModel.QuizState state = model.getState();
+                if(state == QuizModel.QuizState.ASKING)
+                {
+                    QuizQuestion q = model.getCurrentQuestion();
+                    int answer = (random.nextInt(10) == 0) ? (q.getCorrectAnswer()+1) % 4 : q.getCorrectAnswer();
+                    sessions[i].postCommand(QuizCommand.answer(answer));
+                    answers++;
+                }
+                else if(state == QuizModel.QuizState.GAMEOVER || state == QuizModel.QuizState.GAMEWON)
+                {
+                    sessions[i].postCommand(QuizCommand.RESTART);
+                    games++;
+                }
+            }
+            Thread.sleep(QuizSessionManager.UPDATE_RATE);
+        }
+        long playCpu = getOtherThreadsCpuTime() - cpuStart;
+
+        // the players stop answering, all games wait in ASKING, GAMEOVER or GAMEWON
+        Thread.sleep(2000); // let the pending state timeouts expire
+        cpuStart = getOtherThreadsCpuTime();
+        Thread.sleep(IDLE_TIME);
+        long idleCpu = getOtherThreadsCpuTime() - cpuStart;
+
+        int active = manager.size();
+        manager.shutdown();
+        Quiz.setLogging(true);
+        Quiz.Print(active + " sessions (created in " + createTime/1000000 + " ms), " +
+                   answers + " answers and " + games + " finished games in " + SESSION_TIME/1000 + " s, " +
+                   "slowest tick " + manager.getMaxTickTime()/1000000 + " ms " +
+                   "(update rate " + QuizSessionManager.UPDATE_RATE + " ms)");
+        Quiz.Print("CPU time of the other threads: " + playCpu/1000000 + " ms while playing, " +
+                   idleCpu/1000000 + " ms in " + IDLE_TIME/1000 + " s without player actions");
+    }
+
+    /** CPU time of all threads except the current one so far.
+     * @return Time in [ns], 0 if the VM can't measure it. */
+    private static long getOtherThreadsCpuTime()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!bean.isThreadCpuTimeSupported())
+            return 0;
+        long self = Thread.currentThread().getId();
+        long total = 0;
+        long[] ids = bean.getAllThreadIds();
+        for(int i=0;i<ids.length;i++)
+        {
+            if(ids[i] != self)
+                total += Math.max(0, bean.getThreadCpuTime(ids[i])); // -1 for dead threads
+        }
+        return total;
+    }
+
+    /** Compare the heap footprint of String and compact questions.
+     * @param lines Number of lines in the generated database.
+     * @throws IOException if the temporary file can't be written. */
+    private static void benchmarkMemory(int lines) throws IOException
+    {
+        File file = generateDatabase(lines);
+        try
+        {
+            boolean[] modes = {false, true};
+            for(int m=0;m<modes.length;m++)
+            {
+                QuizDB.setCompactQuestions(modes[m]);
+                long before = usedMemory();
+                QuizQuestion[] questions = loadQuestions(file);
+                long measured = usedMemory() - before;
+
+                String name = modes[m] ? "QuizCompactQuestion" : "QuizQuestion";
+                long estimate = estimateSize(questions);
+                Quiz.Print(name + ": " + questions.length + " questions, " +
+                           "layout estimate " + estimate/questions.length + " bytes/question, " +
+                           "measured " + measured/questions.length + " bytes/question");
+                questions = null;
+            }
+        }
+        finally
+        {
+            QuizDB.setCompactQuestions(false);
+            file.delete();
+        }
+    }
+
+    /** Used heap after a garbage collection.
+     * @return Bytes. */
+    private static long usedMemory()
+    {
+        Runtime rt = Runtime.getRuntime();
+        for(int i=0;i<3;i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /** Estimate the heap size of the questions (64 bit VM, compressed
+     * references, 12 byte object header, 16 byte array header, 8 byte
+     * alignment, Strings with a byte array for Latin-1 text). Objects
+     * that are shared (e.g. pooled answers) are counted once.
+     * @param questions Questions.
+     * @return Bytes. */
+    private static long estimateSize(QuizQuestion[] questions)
+    {
+        IdentityHashMap<Object, Object> seen = new IdentityHashMap<Object, Object>();
+        long size = align(16 + 4L*questions.length); // the array
+        for(int i=0;i<questions.length;i++)
+        {
+            QuizQuestion q = questions[i];
+            if(q instanceof QuizCompactQuestion)
+            {
+                // 3 ints and 2 unused references of QuizQuestion, the byte array reference
+                size += align(12 + 3*4 + 3*4);
+                size += align(16 + ((QuizCompactQuestion)q).getTextSize());
+                continue;
+            }
+            size += align(12 + 3*4 + 2*4); // 3 ints, 2 references
+            size += align(16 + 4*4);       // answer array
+            for(int j=-1;j<q.getAnswerCount();j++)
+            {
+                String s = (j < 0) ? q.getQuestion() : q.getAnswer(j);
+                if(seen.put(s, s) == null)
+                    size += align(12 + 4 + 4 + 1) + align(16 + s.length()); // String, byte array
+            }
+        }
+        return size;
+    }
+
+    /** Round up to the object alignment.
+     * @param size Size in bytes.
+     * @return Aligned size. */
+    private static long align(long size)
+    {
+        return (size + 7) & ~7L;
+    }
+
+    /** Load a database file with QuizDB and keep the questions.
+     * @param file Database file.
+     * @return Questions.
+     * @throws IOException if the file can't be read. */
+    private static QuizQuestion[] loadQuestions(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            return QuizDB.loadAllQuestions(in, file.getName(), QuizStringPool.create());
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /** Load a database file with QuizDB (current load mode).
+     * @param file Database file.
+     * @return Number of valid questions.
+     * @throws IOException if the file can't be read. */
+    private static int loadFile(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            return QuizDB.loadAllQuestions(in, file.getName(), QuizStringPool.create()).length;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /** Throughput in MB/s.
+     * @param mb Size in MB.
+     * @param nanos Time in ns.
+     * @return Rounded MB/s. */
+    private static long throughput(double mb, long nanos)
+    {
+        return Math.round(mb/(nanos*1e-9));
+    }
+
+    /** Write a random question database to a temporary file.
+     * @param lines Number of lines.
+     * @return The file (delete it after use).
+     * @throws IOException if the file can't be written. */
+    static File generateDatabase(int lines) throws IOException
+    {
+        File file = File.createTempFile("quizbench", ".qdb");
+        Random random = new Random(42);
+        int maxDifficulty = QuizDB.getMaxDifficulty();
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try
+        {
+            for(int i=0;i<lines;i++)
+            {
+                int level = random.nextInt(maxDifficulty)+1;
+                out.write(level + "; Generated question number " + i + " of level " + level + "?; " +
+                          (1900 + random.nextInt(120)) + "; Answer " + random.nextInt(1000) + "; " +
+                          "Yes; No; " + random.nextInt(4) + "\n");
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    /** The question parser loop before QuizDBParser (BufferedReader,
+     * String.split and trim), kept as baseline.
+     * @param file Database file.
+     * @return Number of valid questions.
+     * @throws IOException if the file can't be read. */
+    private static int parseWithSplit(File file) throws IOException
+    {
+        int maxDifficulty = QuizDB.getMaxDifficulty();
+        Vector<QuizQuestion> allQuestions = new Vector<QuizQuestion>();
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try
+        {
+            int lineNr = 0;
+            String line;
+            while((line = br.readLine()) != null)
+            {
+                lineNr++;
+                line = line.trim();
+                String[] split = line.split(";");
+                if(split.length != 7)
+                    continue;
+                int difficulty = Integer.parseInt(split[0].trim());
+                if(difficulty > maxDifficulty || difficulty < 1)
+                    continue;
+                allQuestions.add(new QuizQuestion(lineNr, difficulty,
+                                                  split[1].trim(), split[2].trim(), split[3].trim(),
+                                                  split[4].trim(), split[5].trim(),
+                                                  Integer.parseInt(split[6].trim())));
+            }
+        }
+        finally
+        {
+            br.close();
+        }
+        return allQuestions.size();
+    }
+}
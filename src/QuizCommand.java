@@ -0,0 +1,88 @@
+package javaquiz;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/** Player commands from the view to the controller.
+ *
+ * The views send command strings with the ActionListener interface (e.g.
+ * "button0", see QuizView). The controller turns them into a QuizCommand
+ * once with parse() and passes only the ordinal through its
+ * QuizCommandQueue, so a command costs no string comparisons and no
+ * garbage on the game thread. Server code can post the commands directly
+ * (QuizController.postCommand()).
+ */
+public enum QuizCommand
+{
+    /** Answer A. */
+    ANSWER_A("button" + QuizView.BUTTON_ID_ANSWER_A),
+    /** Answer B. */
+    ANSWER_B("button" + QuizView.BUTTON_ID_ANSWER_B),
+    /** Answer C. */
+    ANSWER_C("button" + QuizView.BUTTON_ID_ANSWER_C),
+    /** Answer D. */
+    ANSWER_D("button" + QuizView.BUTTON_ID_ANSWER_D),
+    /** 50:50 joker. */
+    JOKER_FIFTY("button" + QuizView.BUTTON_ID_JOKER_FIFTY),
+    /** Audience joker. */
+    JOKER_AUDIENCE("button" + QuizView.BUTTON_ID_JOKER_AUDIENCE),
+    /** Start a new game. */
+    RESTART("restart"),
+    /** Toggle between English and German. */
+    TOGGLE_LANGUAGE("togglelanguage");
+
+    /** Command string of the views. */
+    private final String m_string;
+
+    /** All commands by ordinal (values() creates a new array for each call). */
+    private static final QuizCommand[] m_values = values();
+    /** Command string (lower case) -> command. */
+    private static final HashMap<String, QuizCommand> m_commands = new HashMap<String, QuizCommand>();
+    static
+    {
+        for(QuizCommand command : m_values)
+            m_commands.put(command.m_string, command);
+    }
+
+    /** Constructor.
+     * @param string Command string of the views. */
+    QuizCommand(String string)
+    {
+        m_string = string;
+    }
+
+    /** Get the command string of the views.
+     * @return e.g. "button0" for ANSWER_A. */
+    public String getString()
+    {
+        return m_string;
+    }
+
+    /** Find the command for a command string of a view (ignoring upper/lower case).
+     * @param cmd Command string, e.g. "button0" or "restart".
+     * @return The command or null if the string is unknown. */
+    public static QuizCommand parse(String cmd)
+    {
+        QuizCommand command = m_commands.get(cmd);
+        if(command == null && cmd != null)
+            command = m_commands.get(cmd.toLowerCase(Locale.ENGLISH));
+        return command;
+    }
+
+    /** Get the command for an answer button.
+     * @param button Answer index (0..3).
+     * @return ANSWER_A..ANSWER_D. */
+    public static QuizCommand answer(int button)
+    {
+        assert button >= 0 && button < QuizView.BUTTON_ANSWER_COUNT;
+        return m_values[ANSWER_A.ordinal() + button];
+    }
+
+    /** Get a command by its ordinal.
+     * @param ordinal Value of ordinal().
+     * @return The command. */
+    public static QuizCommand fromOrdinal(int ordinal)
+    {
+        return m_values[ordinal];
+    }
+}
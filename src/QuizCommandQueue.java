@@ -0,0 +1,103 @@
+package javaquiz;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Bounded single producer, single consumer queue of int commands.
+ *
+ * A preallocated ring buffer between the view thread (producer) and the
+ * game thread (consumer), e.g. for the ordinals of QuizCommand. The
+ * producer writes the slot and then publishes the new tail with
+ * lazySet(), the consumer reads the slot and then frees it by moving the
+ * head. There are no locks and no allocations, an offer or a poll costs
+ * a few nanoseconds. Each side keeps a copy of the other side's index
+ * and only reads the shared index when the copy says full or empty.
+ *
+ * offer() must only be called by one thread at a time, and poll(),
+ * isEmpty() and clear() by one (other) thread at a time. If the ring is
+ * full, the command is dropped and counted (getDropped()).
+ */
+public class QuizCommandQueue
+{
+    /** Ring buffer, the length is a power of 2. */
+    private final int[] m_ring;
+    /** m_ring.length-1. */
+    private final int m_mask;
+    /** Next slot to read (written by the consumer). */
+    private final AtomicLong m_head = new AtomicLong(0);
+    /** Next slot to write (written by the producer). */
+    private final AtomicLong m_tail = new AtomicLong(0);
+    /** Producer's copy of m_head. */
+    private long m_headCache = 0;
+    /** Consumer's copy of m_tail. */
+    private long m_tailCache = 0;
+    /** Number of dropped commands (written by the producer). */
+    private volatile long m_dropped = 0;
+
+    /** Create a queue.
+     * @param capacity Minimum number of pending commands (rounded up to a power of 2). */
+    public QuizCommandQueue(int capacity)
+    {
+        int size = 1;
+        while(size < capacity)
+            size <<= 1;
+        m_ring = new int[size];
+        m_mask = size-1;
+    }
+
+    /** Add a command (producer thread).
+     * @param command Command.
+     * @return false if the queue is full and the command has been dropped. */
+    public boolean offer(int command)
+    {
+        long tail = m_tail.get();
+        if(tail - m_headCache >= m_ring.length)
+        {
+            m_headCache = m_head.get();
+            if(tail - m_headCache >= m_ring.length)
+            {
+                m_dropped++; // only the producer writes
+                return false;
+            }
+        }
+        m_ring[(int)tail & m_mask] = command;
+        m_tail.lazySet(tail+1); // publishes the slot
+        return true;
+    }
+
+    /** Take the next command (consumer thread).
+     * @return The command or -1 if the queue is empty. */
+    public int poll()
+    {
+        long head = m_head.get();
+        if(head >= m_tailCache)
+        {
+            m_tailCache = m_tail.get();
+            if(head >= m_tailCache)
+                return -1;
+        }
+        int command = m_ring[(int)head & m_mask];
+        m_head.lazySet(head+1); // frees the slot
+        return command;
+    }
+
+    /** Check for pending commands (consumer thread).
+     * @return true if poll() would return -1. */
+    public boolean isEmpty()
+    {
+        return m_head.get() >= m_tail.get();
+    }
+
+    /** Drop all pending commands (consumer thread). They are not counted as dropped. */
+    public void clear()
+    {
+        m_tailCache = m_tail.get();
+        m_head.lazySet(m_tailCache);
+    }
+
+    /** Number of commands that didn't fit into the queue.
+     * @return Dropped commands since the creation. */
+    public long getDropped()
+    {
+        return m_dropped;
+    }
+}
@@ -0,0 +1,171 @@
+package javaquiz;
+
+/** Question that keeps its texts in one UTF-8 byte array.
+ *
+ * A normal QuizQuestion has five String objects, each with its own
+ * char or byte array, plus the answer array. This class stores the
+ * question and the four answers one after the other in a single UTF-8
+ * byte array and decodes a text when the view asks for it. The array
+ * starts with the end offsets of the first four texts (unsigned 16 bit,
+ * relative to the start of the text data):
+ *
+ *      end0 end1 end2 end3 | question | answer0 | answer1 | answer2 | answer3
+ *
+ * So a question is two heap objects instead of seven, and Latin-1 text
+ * needs one byte per character. Shared answers (see QuizStringPool) are
+ * not possible in this form, so the saving depends on the database:
+ * "QuizBenchmark memory" reports the heap per question for both forms.
+ * Use QuizDB.setCompactQuestions(true) to load the databases this way.
+ */
+public class QuizCompactQuestion extends QuizQuestion
+{
+    /** Number of texts (question and answers). */
+    private final static int TEXTS = 5;
+    /** Size of the offset header in bytes. */
+    private final static int HEADER = 2*(TEXTS-1);
+    /** Largest text data that the 16 bit offsets can address. */
+    private final static int MAX_SIZE = 0xFFFF;
+
+    /** Offset header and UTF-8 text data. */
+    private final byte[] m_text;
+
+    /** Create a question.
+     * @param id unique id.
+     * @param difficulty Difficulty level. Starts at 1.
+     * @param correctAnswer Index of the correct answer (0..3)
+     * @param text Offset header and text data (see class description). */
+    private QuizCompactQuestion(int id, int difficulty, int correctAnswer, byte[] text)
+    {
+        super(id, difficulty, correctAnswer);
+        m_text = text;
+    }
+
+    /** Create a compact question from strings. A normal QuizQuestion is
+     * returned if the texts are too long for the 16 bit offsets.
+     * @param id unique id.
+     * @param difficulty Difficulty level. Starts at 1.
+     * @param question String for the question.
+     * @param answer0 First answer.
+     * @param answer1 Second answer.
+     * @param answer2 Third answer.
+     * @param answer3 Fourth answer.
+     * @param correctAnswer Index of the correct answer (0..3)
+     * @return Question object. */
+    public static QuizQuestion create(int id, int difficulty,
+                                      String question,
+                                      String answer0, String answer1, String answer2, String answer3,
+                                      int correctAnswer)
+    {
+        String[] strings = {question, answer0, answer1, answer2, answer3};
+        byte[][] utf8 = new byte[TEXTS][];
+        int size = 0;
+        for(int i=0;i<TEXTS;i++)
+        {
+            utf8[i] = strings[i].getBytes(QuizDBBinary.UTF8);
+            size += utf8[i].length;
+        }
+        if(size > MAX_SIZE)
+            return new QuizQuestion(id, difficulty, question, answer0, answer1, answer2, answer3, correctAnswer);
+
+        byte[] text = new byte[HEADER + size];
+        int pos = 0;
+        for(int i=0;i<TEXTS;i++)
+        {
+            System.arraycopy(utf8[i], 0, text, HEADER+pos, utf8[i].length);
+            pos += utf8[i].length;
+            if(i < TEXTS-1)
+                putOffset(text, i, pos);
+        }
+        return new QuizCompactQuestion(id, difficulty, correctAnswer, text);
+    }
+
+    /** Create a compact question from UTF-8 data where the five texts
+     * follow each other (e.g. the string table of a binary database),
+     * without decoding the texts. A normal QuizQuestion is returned if
+     * the texts are too long for the 16 bit offsets.
+     * @param id unique id.
+     * @param difficulty Difficulty level. Starts at 1.
+     * @param correctAnswer Index of the correct answer (0..3)
+     * @param data UTF-8 data.
+     * @param start Start of the question text in data.
+     * @param ends End of each text in data (exclusive), ends[4] is the end of answer 3.
+     * @return Question object. */
+    static QuizQuestion create(int id, int difficulty, int correctAnswer, byte[] data, int start, int[] ends)
+    {
+        int size = ends[TEXTS-1] - start;
+        if(size > MAX_SIZE)
+        {
+            String[] s = new String[TEXTS];
+            for(int i=0;i<TEXTS;i++)
+            {
+                int from = (i == 0) ? start : ends[i-1];
+                s[i] = new String(data, from, ends[i]-from, QuizDBBinary.UTF8);
+            }
+            return new QuizQuestion(id, difficulty, s[0], s[1], s[2], s[3], s[4], correctAnswer);
+        }
+
+        byte[] text = new byte[HEADER + size];
+        System.arraycopy(data, start, text, HEADER, size);
+        for(int i=0;i<TEXTS-1;i++)
+            putOffset(text, i, ends[i]-start);
+        return new QuizCompactQuestion(id, difficulty, correctAnswer, text);
+    }
+
+    public String getQuestion()
+    {
+        return decode(0);
+    }
+
+    public String getAnswer(int index)
+    {
+        if(index < TEXTS-1 && index >= 0)
+        {
+            return decode(index+1);
+        }
+        else
+        {
+            assert false;
+            return "";
+        }
+    }
+
+    public int getAnswerCount()
+    {
+        return TEXTS-1;
+    }
+
+    /** Size of the text array in bytes (offset header and UTF-8 data).
+     * @return Array length. */
+    int getTextSize()
+    {
+        return m_text.length;
+    }
+
+    /** Decode a text.
+     * @param i Text index (0 = question, 1..4 = answers).
+     * @return Decoded string. */
+    private String decode(int i)
+    {
+        int start = (i == 0) ? 0 : getOffset(i-1);
+        int end = (i == TEXTS-1) ? m_text.length-HEADER : getOffset(i);
+        return new String(m_text, HEADER+start, end-start, QuizDBBinary.UTF8);
+    }
+
+    /** Read an end offset from the header.
+     * @param i Text index (0..3).
+     * @return Offset relative to the text data. */
+    private int getOffset(int i)
+    {
+        return ((m_text[2*i] & 0xFF) << 8) | (m_text[2*i+1] & 0xFF);
+    }
+
+    /** Write an end offset to the header.
+     * @param text Text array.
+     * @param i Text index (0..3).
+     * @param offset Offset relative to the text data. */
+    private static void putOffset(byte[] text, int i, int offset)
+    {
+        text[2*i] = (byte)(offset >>> 8);
+        text[2*i+1] = (byte)offset;
+    }
+}
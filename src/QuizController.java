@@ -3,7 +3,8 @@ package javaquiz;
 import java.util.*;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
-import java.util.concurrent.LinkedBlockingQueue; // for the thread msg queue
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 // For the sound effects
 import java.io.*;
@@ -28,12 +29,41 @@ public class QuizController extends TimerTask implements ActionListener
     private long m_lastStateChangeTime;
     /** Our current game view */
     protected QuizView m_view = null;
-    /** Thread safe message list. This is used to store commands from the Swing UI thread and process them in the Timer loop. */
-    private LinkedBlockingQueue<String> m_cmdQueue;
+    /** Lock-free command ring. This is used to store commands from the Swing UI thread and process them in the Timer loop. */
+    private final QuizCommandQueue m_cmdQueue;
     /** Current frame time. This gets updated for each frame. */
     private long m_frameTime;
     /** Remember the old state. */
     QuizModel.QuizState m_lastState = QuizModel.QuizState.NULL;
+    /** Create an own timer for the updates (false: somebody else calls tick()). */
+    private final boolean m_ownTimer;
+    /** Play sounds and music. */
+    private volatile boolean m_soundEnabled = true;
+    /** Timing wheel for the state timeouts, commands and animation frames (null: the game is updated by a timer or tick()). */
+    private final QuizTimingWheel m_wheel;
+    /** Pending state timeout in the timing wheel. */
+    private QuizTimingWheel.Timeout m_deadline = null;
+    /** Set while the next animation frame is scheduled in the timing wheel. */
+    private boolean m_framePending = false;
+    /** Set while the processing of new commands is scheduled in the timing wheel. */
+    private final AtomicBoolean m_wakePending = new AtomicBoolean(false);
+    /** Thread in runLoop() (null if the game doesn't run in its own loop). */
+    private volatile Thread m_loopThread = null;
+    /** Counts the state changes, a state timeout of an older state does nothing. */
+    private volatile int m_stateGeneration = 0;
+    /** Set by shutdown(). */
+    private volatile boolean m_stopped = false;
+    /** Gets the exceptions of the updates on the timing wheel (null: they are logged). */
+    private volatile FailureHandler m_failureHandler = null;
+
+    /** Receives the exceptions of the game updates on the timing wheel. */
+    public interface FailureHandler
+    {
+        /** An update on the thread of the timing wheel has thrown an exception.
+         * @param controller The controller of the game.
+         * @param e The exception. */
+        void failed(QuizController controller, Throwable e);
+    }
 
     /** Game update rate in [ms] */
     protected final static int UPDATE_RATE = 50;
@@ -44,11 +74,38 @@ public class QuizController extends TimerTask implements ActionListener
      * The constructor does nothing. To start the game, call the init method.  */
     public QuizController()
     {
+        this(true);
+    }
+
+    /**
+     * Constructor. To start the game, call the init method.
+     * @param ownTimer true: the controller updates the game with its own timer.
+     *        false: the owner calls tick() every UPDATE_RATE ms (see QuizSessionManager). */
+    public QuizController(boolean ownTimer)
+    {
+        m_ownTimer = ownTimer;
+        m_wheel = null;
         // If we haven't processed those user commands, they will be dropped.
         // It is very unlikely that this will happen; and if it happens, the
         // user will have to click again after the system is responsive again.
         // So this is not too bad.
-        m_cmdQueue = new LinkedBlockingQueue<String>(MAX_PENDING_UI_CMDS);
+        m_cmdQueue = new QuizCommandQueue(MAX_PENDING_UI_CMDS);
+    }
+
+    /**
+     * Constructor for an event driven controller without polling. The
+     * game is only updated when a state times out (see getStateTimeout()),
+     * a command arrives or the view animates the current state (every
+     * UPDATE_RATE ms for QuizView.getAnimationTime()), all on the thread of
+     * the timing wheel. So a game that waits for the player costs no CPU
+     * time and many games can share one wheel.
+     * To start the game, call the init method.
+     * @param wheel Timing wheel for the state timeouts and commands. */
+    public QuizController(QuizTimingWheel wheel)
+    {
+        m_ownTimer = false;
+        m_wheel = wheel;
+        m_cmdQueue = new QuizCommandQueue(MAX_PENDING_UI_CMDS);
     }
 
     /**
@@ -91,10 +148,12 @@ public class QuizController extends TimerTask implements ActionListener
 
         // store the current time
         m_lastStateChangeTime = System.currentTimeMillis();
+        m_frameTime = m_lastStateChangeTime;
+        scheduleStateTimeout();
         update(m_lastStateChangeTime); // initial update
 
         // start the timer
-        if(m_timer == null)
+        if(m_timer == null && m_ownTimer)
         {
             Quiz.Print("Create new timer");
             m_timer = new Timer();
@@ -118,7 +177,7 @@ public class QuizController extends TimerTask implements ActionListener
         // If the user has changed the language, we need a complete
         // user interface redraw at the end of this method.
         // So we store the current language here and compare it after
-        // the processMessage loop and we see if the language has changed.
+        // the processCommand loop and we see if the language has changed.
         QuizLanguage.LanguageID langID = m_q.getLanguage().getLanguageID();
         boolean hasLanguageChanged = false;
         // Don't call System.currentTimeMillis several times per frame.
@@ -130,10 +189,10 @@ public class QuizController extends TimerTask implements ActionListener
          * thread from the game logic thread, so we have basically a
          * single thread model, which is sufficient for a simple game
          * like this and saves us a lot of headaches. */
-        String cmd;
-        while((cmd = m_cmdQueue.poll()) != null)
+        int cmd;
+        while((cmd = m_cmdQueue.poll()) >= 0)
         {
-            processMessage(cmd);
+            processCommand(QuizCommand.fromOrdinal(cmd));
         }
         if(langID != m_q.getLanguage().getLanguageID())
             hasLanguageChanged = true; // force redraw at the end of this method.
@@ -144,10 +203,12 @@ public class QuizController extends TimerTask implements ActionListener
         // check if the state has changed
         QuizModel.QuizState state = m_q.getState();
         boolean stateChanged = (state != m_lastState);
+        int timeout = getStateTimeout(state);
+        boolean timedOut = timeout > 0 && getFrameTime() - m_lastStateChangeTime >= timeout;
         switch(state)
         {
             case BEGIN:
-                if(dt > 4.0f) // display the intro for 4 seconds
+                if(timedOut) // display the intro for 4 seconds
                 {
                     gotoState(QuizModel.QuizState.ASKING);
                     playBackgroundMusic("background.wav");
@@ -156,7 +217,7 @@ public class QuizController extends TimerTask implements ActionListener
             case ASKING:
                 break;
             case RIGHT_ANSWER:
-                if(dt > 1.0f) // timeout in seconds
+                if(timedOut)
                 {
                     if(m_q.hasThePlayerWon())
                     {
@@ -170,7 +231,7 @@ public class QuizController extends TimerTask implements ActionListener
                 }
                 break;
             case WRONG_ANSWER:
-                if(dt > 2.0f) // timeout in seconds
+                if(timedOut)
                 {
                     gotoState(QuizModel.QuizState.GAMEOVER);
                 }
@@ -189,13 +250,13 @@ public class QuizController extends TimerTask implements ActionListener
                 }
                 break;
             case JOKER_AUDIENCE:
-                if(dt > 1.5f) // timeout in seconds
+                if(timedOut)
                 {
                     gotoState(QuizModel.QuizState.ASKING);
                 }
                 break;
             case JOKER_5050:
-                if(dt > 1.5f) // timeout in seconds
+                if(timedOut)
                 {
                     gotoState(QuizModel.QuizState.ASKING);
                 }
@@ -207,6 +268,196 @@ public class QuizController extends TimerTask implements ActionListener
 
         m_lastState = state;
         m_view.update(m_q, time, dt, hasLanguageChanged/*forceRedraw*/);
+        scheduleFrame();
+    }
+
+    /** How long the game stays in a state without user action.
+     * @param state Game state.
+     * @return Time in [ms] until the controller changes the state by itself,
+     *         0 if the state waits for the player. */
+    public static int getStateTimeout(QuizModel.QuizState state)
+    {
+        switch(state)
+        {
+            case BEGIN:
+                return 4000; // display the intro for 4 seconds
+            case RIGHT_ANSWER:
+                return 1000;
+            case WRONG_ANSWER:
+                return 2000;
+            case JOKER_AUDIENCE:
+            case JOKER_5050:
+                return 1500;
+            default:
+                return 0;
+        }
+    }
+
+    /** Schedule the timeout of the current state in the timing wheel and
+     *  drop the timeout of the previous state. Does nothing without a wheel. */
+    private void scheduleStateTimeout()
+    {
+        if(m_wheel == null)
+            return;
+        if(m_deadline != null)
+            m_deadline.cancel();
+        m_deadline = null;
+
+        final int generation = ++m_stateGeneration;
+        int timeout = getStateTimeout(m_q.getState());
+        if(timeout == 0 || m_stopped)
+            return;
+        long delay = m_lastStateChangeTime + timeout - System.currentTimeMillis();
+        m_deadline = m_wheel.schedule(Math.max(0, delay), new Runnable() {
+            public void run()
+            {
+                // the state might have changed since (cancel() can come too late)
+                if(generation == m_stateGeneration && !m_stopped)
+                    updateOnWheel();
+            }
+        });
+    }
+
+    /** Schedule the next frame in the timing wheel if the view still animates
+     *  the current state. Does nothing without a wheel. */
+    private void scheduleFrame()
+    {
+        if(m_wheel == null || m_framePending || m_stopped)
+            return;
+        float dt = (getFrameTime() - m_lastStateChangeTime)*0.001f;
+        if(dt >= m_view.getAnimationTime(m_q))
+            return; // the screen is done, wait for the next deadline or command
+        m_framePending = true;
+        m_wheel.schedule(UPDATE_RATE, m_nextFrame);
+    }
+
+    /** Draws an animation frame on the thread of the timing wheel. */
+    private final Runnable m_nextFrame = new Runnable() {
+        public void run()
+        {
+            m_framePending = false;
+            if(!m_stopped)
+                updateOnWheel();
+        }
+    };
+
+    /** Update the game on the thread of the timing wheel. An exception
+     *  goes to the failure handler (see setFailureHandler()) instead of
+     *  the wheel, which would only log it. */
+    private void updateOnWheel()
+    {
+        try
+        {
+            update(System.currentTimeMillis());
+        }
+        catch(RuntimeException e)
+        {
+            failed(e);
+        }
+        catch(AssertionError e)
+        {
+            failed(e);
+        }
+    }
+
+    /** Handle an exception of an update on the timing wheel.
+     * @param e The exception. */
+    private void failed(Throwable e)
+    {
+        // the update didn't finish, so nothing is scheduled anymore
+        m_framePending = false;
+        m_wakePending.set(false);
+        FailureHandler handler = m_failureHandler;
+        if(handler != null)
+            handler.failed(this, e);
+        else
+            Quiz.Print("QuizController: Update failed: " + e);
+    }
+
+    /** Set the receiver of the exceptions of the updates on the timing
+     * wheel, e.g. to end the game (see QuizSessionManager). Without a
+     * handler the exceptions are logged and the game goes on.
+     * @param handler Failure handler or null. */
+    public void setFailureHandler(FailureHandler handler)
+    {
+        m_failureHandler = handler;
+    }
+
+    /** Run the game on the current thread until shutdown(), for controllers
+     * without own timer. The thread sleeps until the next state timeout
+     * (see getStateTimeout()), the next animation frame (while the view
+     * animates, see QuizView.getAnimationTime()) or the next command,
+     * so a game that waits for the player doesn't use the CPU. Meant for a
+     * thread per game (see QuizSessionManager). Exceptions of update() end
+     * the loop. */
+    public void runLoop()
+    {
+        m_loopThread = Thread.currentThread();
+        try
+        {
+            while(!m_stopped)
+            {
+                update(System.currentTimeMillis());
+                if(!m_cmdQueue.isEmpty())
+                    continue; // a command arrived during the update
+                long next = getNextUpdateTime();
+                if(next == Long.MAX_VALUE)
+                    LockSupport.park(this); // nothing to do until the next command
+                else if(next > System.currentTimeMillis())
+                    LockSupport.parkNanos(this, (next - System.currentTimeMillis())*1000000L);
+            }
+        }
+        finally
+        {
+            m_loopThread = null;
+        }
+    }
+
+    /** When does the game need the next update without a command?
+     * @return Absolute time in [ms] of the state timeout or the next animation
+     *         frame, Long.MAX_VALUE if the game waits for the player. */
+    private long getNextUpdateTime()
+    {
+        long next = Long.MAX_VALUE;
+        int timeout = getStateTimeout(m_q.getState());
+        if(timeout > 0)
+            next = m_lastStateChangeTime + timeout;
+        float dt = (getFrameTime() - m_lastStateChangeTime)*0.001f;
+        if(dt < m_view.getAnimationTime(m_q))
+            next = Math.min(next, getFrameTime() + UPDATE_RATE);
+        return next;
+    }
+
+    /** Update the game, for controllers without own timer.
+     * Must not be called by several threads at the same time.
+     * @param time Absolute system time in [ms] from System.currentTimeMillis(). */
+    public void tick(long time)
+    {
+        update(time);
+    }
+
+    /** Stop the game timer and the music. The controller can't be restarted. */
+    public void shutdown()
+    {
+        m_stopped = true;
+        if(m_deadline != null)
+            m_deadline.cancel();
+        Thread loopThread = m_loopThread;
+        if(loopThread != null)
+            LockSupport.unpark(loopThread); // leave runLoop()
+        cancel();
+        if(m_timer != null)
+            m_timer.cancel();
+        stopBackgroundMusic();
+    }
+
+    /** Enable or disable sounds and music (e.g. for a controller without a screen).
+     * @param enabled false: no sounds. */
+    public void setSoundEnabled(boolean enabled)
+    {
+        m_soundEnabled = enabled;
+        if(!enabled)
+            stopBackgroundMusic();
     }
 
     /** Get the current time of this frame.
@@ -261,6 +512,7 @@ public class QuizController extends TimerTask implements ActionListener
     {
         m_q.setState(state);
         m_lastStateChangeTime = getFrameTime();
+        scheduleStateTimeout();
     }
 
     /** Event function: The user clicked on the audience joker */
@@ -330,57 +582,86 @@ public class QuizController extends TimerTask implements ActionListener
 	 * @param e Event with an associated cmd string in getActionCommand(). */
 	public void actionPerformed(ActionEvent e)
 	{
-		String cmd = e.getActionCommand();
-        // try to put the cmd in the queue.
+		QuizCommand command = QuizCommand.parse(e.getActionCommand());
+        if(command == null)
+        {
+            Quiz.Print("Unknown event: " + e.getActionCommand());
+            return;
+        }
+        postCommand(command);
+    }
+
+    /** Send a command to the game. It is processed on the game thread with
+     * the next update. Must not be called by several threads at the same
+     * time (the Swing event thread or a lock of the caller, see QuizCommandQueue).
+     * @param command The command.
+     * @return false if the command has been dropped because too many commands are pending. */
+    public boolean postCommand(QuizCommand command)
+    {
         // drop the UI command if the queue is full.
-        if(m_cmdQueue.offer(cmd) == false)
-            Quiz.Print("Too many user interface actions.");
+        if(!m_cmdQueue.offer(command.ordinal()))
+            return false;
+        if(m_wheel != null && !m_stopped && m_wakePending.compareAndSet(false, true))
+            m_wheel.schedule(0, m_processCommands); // process it on the wheel thread
+        Thread loopThread = m_loopThread;
+        if(loopThread != null)
+            LockSupport.unpark(loopThread); // wake up runLoop()
+        return true;
     }
 
-    /** Process a user interface command.
-	 * @param cmd Command string from the user interface. */
-	private void processMessage(String cmd)
-	{
-		Quiz.Print("Command from View: " + cmd);
+    /** Number of commands that have been dropped because too many commands were pending.
+     * @return Dropped commands since the creation of the controller. */
+    public long getDroppedCommands()
+    {
+        return m_cmdQueue.getDropped();
+    }
 
-		if(cmd.equalsIgnoreCase("button" + QuizView.BUTTON_ID_ANSWER_A))
-        {
-            onButton(0);
-        }
-        else if(cmd.equalsIgnoreCase("button" + QuizView.BUTTON_ID_ANSWER_B))
+    /** Processes the pending commands on the thread of the timing wheel. */
+    private final Runnable m_processCommands = new Runnable() {
+        public void run()
         {
-            onButton(1);
+            m_wakePending.set(false); // commands from now on need a new wake up
+            if(!m_stopped && !m_cmdQueue.isEmpty())
+                updateOnWheel();
         }
-        else if(cmd.equalsIgnoreCase("button" + QuizView.BUTTON_ID_ANSWER_C))
-        {
-            onButton(2);
-        }
-        else if(cmd.equalsIgnoreCase("button" + QuizView.BUTTON_ID_ANSWER_D))
-        {
-            onButton(3);
-        }
-        else if(cmd.equalsIgnoreCase("restart")) // restart the game
-        {
-            restartGame(m_q.getLanguage().getLanguageID());
-        }
-        else if(cmd.equalsIgnoreCase("togglelanguage"))
-        {
-            toggleEnglishGerman();
-        }
-        else if(cmd.equalsIgnoreCase("button" +
-                    QuizView.BUTTON_ID_JOKER_FIFTY))
-        {
-            onJoker5050();
-        }
-        else if(cmd.equalsIgnoreCase("button" +
-                    QuizView.BUTTON_ID_JOKER_AUDIENCE))
-        {
-            onJokerAudience();
-        }
-        else
+    };
+
+    /** Process a user interface command.
+	 * @param command Command from the user interface. */
+	private void processCommand(QuizCommand command)
+	{
+		if(Quiz.isLogging())
+            Quiz.Print("Command from View: " + command);
+
+        switch(command)
         {
-            Quiz.Print("Unknown event: " + cmd);
-            assert false;
+            case ANSWER_A:
+                onButton(0);
+                break;
+            case ANSWER_B:
+                onButton(1);
+                break;
+            case ANSWER_C:
+                onButton(2);
+                break;
+            case ANSWER_D:
+                onButton(3);
+                break;
+            case RESTART: // restart the game
+                restartGame(m_q.getLanguage().getLanguageID());
+                break;
+            case TOGGLE_LANGUAGE:
+                toggleEnglishGerman();
+                break;
+            case JOKER_FIFTY:
+                onJoker5050();
+                break;
+            case JOKER_AUDIENCE:
+                onJokerAudience();
+                break;
+            default:
+                Quiz.Print("Unknown event: " + command);
+                assert false;
         }
 	}
 
@@ -424,6 +705,8 @@ public class QuizController extends TimerTask implements ActionListener
      */
     public void playSound(String soundPath)
     {
+        if(!m_soundEnabled)
+            return;
         try
         {
             // Open an audio input stream from the jar file.
@@ -454,6 +737,8 @@ public class QuizController extends TimerTask implements ActionListener
     public void playBackgroundMusic(String soundPath)
     {
         stopBackgroundMusic();
+        if(!m_soundEnabled)
+            return;
 
         try
         {
@@ -1,15 +1,18 @@
 package javaquiz;
 
 import java.util.*;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.InputStream;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 
 /** This class loads quiz questions from a CSV-like UTF-8 encoded file.
   * The question database is a simple CSV file with one question per line.
-  * Each question attribute is separated by a ";" (see the QuizDB.SPLIT
-  * constant).
+  * Each question attribute is separated by a ";" (see QuizDBParser, which
+  * also explains how to quote or escape a ";" in the text).
   *
   * Example:
   *
@@ -19,15 +22,40 @@ import java.io.IOException;
   * The second item is the question string.
   * This is followed by four answers (Pan, Pin, Pen, Pun)
   * And the last item is the correct answer index here.
+  *
+  * A database can also be stored in a compact binary format, which is
+  * much faster to load. See QuizDBBinary for the format and the converter.
+  *
+  * This is the default QuizQuestionSource of QuizModel.
   */
-public class QuizDB
+public class QuizDB implements QuizQuestionSource
 {
-    /** Use this character to split the strings in our database. */
-    private final static String SPLIT = ";";
+    /** How text databases are parsed. */
+    public enum LoadMode
+    {
+        /** parse on the calling thread (default) */
+        SEQUENTIAL,
+        /** split the file into chunks and parse them on several threads (see QuizDBParallelLoader) */
+        PARALLEL,
+        /** don't keep text databases in memory: every draw reads the
+         *  file once and selects the questions on the fly (see QuizDBSampler) */
+        STREAMING
+    }
+
     /** There are 7 fields per line in the quiz db. */
     private final static int FIELDS = 7;
     /** How many questions do we expect in the database (roughly, to reserve memory). */
     private final static int EXPECTED_QUESTIONS = 200;
+    /** Random generator for the question selection (shared, Random is thread safe). */
+    private final static Random m_random = new Random();
+    /** Current load mode for all databases. */
+    private static volatile LoadMode m_loadMode = LoadMode.SEQUENTIAL;
+    /** Databases in this directory are used instead of the databases in the jar (null: jar only). */
+    private static volatile File m_databaseDirectory = null;
+    /** Load the questions as QuizCompactQuestion. */
+    private static volatile boolean m_compactQuestions = false;
+    /** Draw from shuffled decks, so questions don't repeat (see QuizDeck). */
+    private static volatile boolean m_nonRepeating = false;
 
     /** Constructor. */
     public QuizDB()
@@ -35,176 +63,390 @@ public class QuizDB
 
     }
 
+    /** Select how text databases are parsed. SEQUENTIAL and PARALLEL give
+     * the same result, PARALLEL is faster for very large files. STREAMING
+     * never keeps a text database in memory.
+     * The mode is used for the next load, cached databases are not reloaded.
+     * @param mode Load mode. */
+    public static void setLoadMode(LoadMode mode)
+    {
+        m_loadMode = mode;
+    }
+
+    /** Load databases from a directory in the filesystem. A database
+     * that is not in this directory is still loaded from the jar.
+     * The cache is cleared, so the next game uses the new databases.
+     * See QuizDBWatcher to reload the databases when the files change.
+     * @param directory Database directory or null to use the jar only. */
+    public static void setDatabaseDirectory(File directory)
+    {
+        m_databaseDirectory = directory;
+        QuizDBCache.invalidateAll();
+    }
+
+    /** Get the database directory.
+     * @return Database directory or null if only the jar is used. */
+    public static File getDatabaseDirectory()
+    {
+        return m_databaseDirectory;
+    }
+
+    /** Get the current load mode.
+     * @return Load mode. */
+    public static LoadMode getLoadMode()
+    {
+        return m_loadMode;
+    }
+
+    /** Store the texts of the loaded questions as UTF-8 bytes (see
+     * QuizCompactQuestion) instead of Strings. This needs less memory,
+     * but the texts are decoded for each call of getQuestion() and getAnswer().
+     * Databases that are already loaded are not changed.
+     * @param compact true for compact questions. */
+    public static void setCompactQuestions(boolean compact)
+    {
+        m_compactQuestions = compact;
+    }
+
+    /** Are the questions loaded as QuizCompactQuestion?
+     * @return true for compact questions. */
+    public static boolean isCompactQuestions()
+    {
+        return m_compactQuestions;
+    }
+
+    /** Select how the random questions are drawn.
+     * With non-repeating draws each level is a shuffled deck for the
+     * whole process: a question comes again only after all other
+     * questions of its level have been drawn. Otherwise (default) every
+     * draw selects any question of the level, as the game always did.
+     * Not used in STREAMING mode.
+     * @param nonRepeating true for non-repeating draws. */
+    public static void setNonRepeating(boolean nonRepeating)
+    {
+        m_nonRepeating = nonRepeating;
+    }
+
+    /** Are the random questions drawn without repetition?
+     * @return true for non-repeating draws. */
+    public static boolean isNonRepeating()
+    {
+        return m_nonRepeating;
+    }
+
+    /** Highest difficulty level of the databases. The loaders skip
+     * questions above it, and QuizDBValidator reports them.
+     * @return One level per question of a game (the score table has an
+     *         extra entry for no correct answer, see QuizModel.getScoretable). */
+    public static int getMaxDifficulty()
+    {
+        return QuizModel.getScoretable().length-1;
+    }
+
+    /** Start loading the databases of all languages on background threads.
+     * Call this as early as possible: the first game only waits if its
+     * database is not ready yet. Nothing happens in STREAMING mode.
+     */
+    public static void warmUp()
+    {
+        if(m_loadMode == LoadMode.STREAMING)
+            return; // nothing is kept in memory
+        for(QuizLanguage.LanguageID langID : QuizLanguage.LanguageID.values())
+        {
+            QuizLanguage language = QuizLanguage.getLanguage(langID);
+            QuizDBCache.prefetch(language.getString(QuizLanguage.StringID.DATABASEFILE));
+        }
+    }
+
     /** Loads a random set of questions from the db.
+     * The database is parsed only once per process (see QuizDBCache),
+     * in STREAMING mode the file is read again for each call.
      * One question per difficulty level.
-     * @param fileName Quiz database file name (UTF-8 encoded file in jar, NOT in the filesystem).
+     * @param fileName Quiz database file name (in the database directory or in the jar).
      * @return Array of questions. Array is empty if something fails.
      */
     public QuizQuestion[] getRandomQuestions(String fileName)
     {
-        QuizQuestion[] allQuestions = loadAllQuestions(fileName);
-        int maxQuestions = QuizModel.getScoretable().length;
-        Vector<QuizQuestion> questions = new Vector<QuizQuestion>(maxQuestions);
-        Random random = new Random();
+        if(m_loadMode == LoadMode.STREAMING)
+        {
+            QuizQuestion[] questions = QuizDBSampler.getRandomQuestions(fileName, m_random);
+            if(questions != null)
+                return questions;
+            // not a text database, use the cache
+        }
 
-        // for each difficulty level we fill the category vector
-        // with question from this level and then select randomly
-        // one question from this level. this question gets added
-        // to the final question array.
+        QuizQuestion[] questions = new QuizQuestion[getMaxDifficulty()];
+        int questionsFound = getRandomQuestions(fileName, questions);
+        if(questionsFound < questions.length) // some levels are empty
+            questions = Arrays.copyOf(questions, questionsFound);
+        return questions;
+    }
+
+    /** Loads a random set of questions from the db into an array.
+     * With non-repeating draws (see setNonRepeating) this does not
+     * allocate and does not lock, so many games can start at the same time.
+     * STREAMING mode is not used here, the database is always cached.
+     * @param fileName Quiz database file name (in the database directory or in the jar).
+     * @param questions Result: one question per difficulty level, sorted by difficulty.
+     *        Empty levels are skipped, the rest of the array is not changed.
+     * @return Number of questions in the array.
+     */
+    public int getRandomQuestions(String fileName, QuizQuestion[] questions)
+    {
+        QuizDBIndex index = QuizDBCache.get(fileName);
+        if(m_nonRepeating)
+            return index.drawQuestions(questions);
+
+        int questionsFound = 0;
+
+        // the index knows the questions of each difficulty level,
+        // so we just select one random question per level.
 
         // foreach difficulty level (1 = min. difficulty level)
-        for(int i=1;i<=maxQuestions;i++)
+        for(int i=1;i<=index.getMaxDifficulty() && questionsFound<questions.length;i++)
         {
-            // We expect roughly EXPECTED_QUESTIONS/5 per level.
-            Vector<QuizQuestion> questionsInThisLevel =
-                new Vector<QuizQuestion>(EXPECTED_QUESTIONS/5);
-            for(int j=0;j<allQuestions.length;j++) // foreach question
-            {
-                // does this question match our current difficulty level?
-                if(allQuestions[j].getDifficulty() == i)
-                {
-                    // cache it here
-                    questionsInThisLevel.add(allQuestions[j]);
-                }
-            }
-
             // there is no question available for this difficulty level.
             // this is bad. we need at least one question per level.
-            int questionsFound = questionsInThisLevel.size();
-            if(questionsFound == 0)
+            int questionsInThisLevel = index.getQuestionCount(i);
+            if(questionsInThisLevel == 0)
             {
                 continue;
             }
 
-            // select random question from questionsInThisLevel
-            int rndNr = random.nextInt(questionsFound);
-            // push this question to our final return array
-            questions.add(questionsInThisLevel.elementAt(rndNr));
+            // push a random question of this level to our final return array
+            questions[questionsFound++] = index.getQuestion(i, m_random.nextInt(questionsInThisLevel));
         }
+        return questionsFound;
+    }
 
-        // we give back an array instead of the internal vector
-        return (QuizQuestion[])questions.toArray(new QuizQuestion[questions.size()]);
+    /** Loads one random question of a difficulty level from the db.
+     * @param fileName Quiz database file name (in the database directory or in the jar).
+     * @param difficulty Difficulty level (1..max).
+     * @return Question object or null if there is no question for this level.
+     */
+    public QuizQuestion getRandomQuestion(String fileName, int difficulty)
+    {
+        if(m_loadMode == LoadMode.STREAMING)
+        {
+            QuizQuestion[] questions = QuizDBSampler.getRandomQuestion(fileName, difficulty, m_random);
+            if(questions != null)
+                return questions.length > 0 ? questions[0] : null;
+            // not a text database, use the cache
+        }
+
+        QuizDBIndex index = QuizDBCache.get(fileName);
+        if(index.getQuestionCount(difficulty) == 0)
+            return null;
+        return drawQuestion(index, difficulty);
+    }
+
+    /** Draw a random question of a level that has questions.
+     * @param index Database index.
+     * @param difficulty Difficulty level.
+     * @return Question object. */
+    private static QuizQuestion drawQuestion(QuizDBIndex index, int difficulty)
+    {
+        if(m_nonRepeating)
+            return index.drawQuestion(difficulty);
+        return index.getQuestion(difficulty, m_random.nextInt(index.getQuestionCount(difficulty)));
     }
 
     /** Loads a specific set of questions from the db.
      * This method is here because the user might change the language,
      * so we reload the same questions from another database in another language.
-     * @param fileName Quiz database file name (UTF-8 encoded file in jar, NOT in the filesystem).
-     * @param ids Array of question ids that we should load.
-     * @return Array of questions. Empty, if there is a problem.
+     * @param fileName Quiz database file name (in the database directory or in the jar).
+     * @param ids Array of question ids that we should load (the array is not modified).
+     * @return Array of questions, sorted by difficulty. Empty, if there is a problem.
      */
     public QuizQuestion[] getSpecificQuestions(String fileName, int[] ids)
     {
-        QuizQuestion[] allQuestions = loadAllQuestions(fileName);
-        int maxQuestions = QuizModel.getScoretable().length;
-        Vector<QuizQuestion> questions = new Vector<QuizQuestion>(maxQuestions);
-        QuizQuestion[] qarray; // our final resulting question array
+        if(m_loadMode == LoadMode.STREAMING)
+        {
+            QuizQuestion[] questions = QuizDBSampler.getSpecificQuestions(fileName, ids);
+            if(questions != null)
+                return questions;
+            // not a text database, use the cache
+        }
 
-        Arrays.sort(ids); // sort the array, so we can use the binary search method
+        QuizDBIndex index = QuizDBCache.get(fileName);
+        QuizQuestion[] qarray = new QuizQuestion[ids.length]; // our final resulting question array
+        int questionsFound = 0;
 
-        for(int i=0;i<allQuestions.length;i++) // foreach question
+        for(int i=0;i<ids.length;i++) // foreach wanted id
         {
-            // we check, if the user wants this question
-            // Something in the order of: n*log(n)
-            // thanks to the binary search.
-            int index = Arrays.binarySearch(ids, allQuestions[i].getID());
-            if(index >= 0) // the question id is in the ids[] array
+            // hash lookup, so this is O(1) per question
+            QuizQuestion q = index.getQuestionByID(ids[i]);
+            if(q != null)
             {
                 // so add this to our final question array
-                questions.add(allQuestions[i]);
+                qarray[questionsFound++] = q;
             }
         }
+        if(questionsFound < qarray.length) // some ids are unknown
+            qarray = Arrays.copyOf(qarray, questionsFound);
 
         // Now we have the questions and we can sort them
         // in the order of the difficulty level
-        qarray = (QuizQuestion[])questions.toArray(
-                new QuizQuestion[questions.size()]);
         Arrays.sort(qarray, new QuestionComparator());
         return qarray;
     }
 
-    /** Helper class to sort questions according to difficulty level. */
-    private static class QuestionComparator implements Comparator<QuizQuestion>
+    /** How many questions of a difficulty level are in the db.
+     * This loads the database into the cache (also in STREAMING mode).
+     * @param fileName Quiz database file name (in the database directory or in the jar).
+     * @param difficulty Difficulty level (1..max).
+     * @return Question count, 0 if the level is out of range.
+     */
+    public int getQuestionCount(String fileName, int difficulty)
+    {
+        return QuizDBCache.get(fileName).getQuestionCount(difficulty);
+    }
+
+    /** Helper class to sort questions according to difficulty level
+     *  (and the id for questions of the same level, i.e. file order). */
+    static class QuestionComparator implements Comparator<QuizQuestion>
     {
         public int compare(QuizQuestion a, QuizQuestion b)
         {
-            return a.getDifficulty() - b.getDifficulty();
+            if(a.getDifficulty() != b.getDifficulty())
+                return a.getDifficulty() - b.getDifficulty();
+            return (a.getID() < b.getID()) ? -1 : ((a.getID() == b.getID()) ? 0 : 1);
         }
     }
 
-    /** Loads all questions from the db.
-     * @param fileName Quiz database file name (UTF-8 encoded file in jar, NOT in the filesystem).
-     * @return Array of questions. Returns an empty array, if there is a problem. */
-    private QuizQuestion[] loadAllQuestions(String fileName)
+    /** Create a question from the current line of the parser.
+     * @param parser Parser, positioned at a line.
+     * @param maxDifficulty Highest valid difficulty level.
+     * @param pool Answer pool of the load or null.
+     * @return Question object or null if the line is not a valid question. */
+    static QuizQuestion parseQuestion(QuizDBParser parser, int maxDifficulty, QuizStringPool pool)
     {
-        // the quizmodel expects only as much questions as there are
-        // entries in the scoretable.
-        // which equals to our max. difficulty level.
-        int maxDifficulty = QuizModel.getScoretable().length;
-        Vector<QuizQuestion> allQuestions =
-            new Vector<QuizQuestion>(EXPECTED_QUESTIONS);
-
-        Quiz.Print("Loading from quiz database: " + fileName);
+        int difficulty = checkQuestion(parser, maxDifficulty, true);
+        if(difficulty == 0)
+            return null;
+        return createQuestion(parser, difficulty, pool);
+    }
 
-        InputStream stream = null;
+    /** Check if the current line of the parser is a valid question.
+     * No strings are created for this check.
+     * @param parser Parser, positioned at a line.
+     * @param maxDifficulty Highest valid difficulty level.
+     * @param log Log invalid lines?
+     * @return Difficulty level of the question or 0 if the line is not a valid question. */
+    static int checkQuestion(QuizDBParser parser, int maxDifficulty, boolean log)
+    {
+        if(parser.getFieldCount() != FIELDS) // check the attribute count
+        {
+            if(log)
+                Quiz.Print("Invalid line in quiz database: " + parser.getLineNumber());
+            return 0;
+        }
 
+        int difficulty;
+        int correctAnswer;
         try
         {
-            int lineNr = 0; // we use this as our question index
-            String line;
-            stream = getClass().getClassLoader().getResourceAsStream(fileName);
-            BufferedReader br = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+            difficulty = parser.getFieldInt(0);
+            correctAnswer = parser.getFieldInt(6);
+        }
+        catch(NumberFormatException e)
+        {
+            if(log)
+                Quiz.Print("Invalid number in quiz database: " + parser.getLineNumber());
+            return 0;
+        }
+        if(difficulty > maxDifficulty || difficulty < 1)
+            return 0;
+        if(correctAnswer < 0 || correctAnswer > 3)
+        {
+            if(log)
+                Quiz.Print("Invalid correct answer in quiz database: " + parser.getLineNumber());
+            return 0;
+        }
 
-            // load all questions, line by line
-            while((line = br.readLine()) != null)
-            {
-                lineNr++; // so 1 is our first index
+        for(int i=1;i<FIELDS-1;i++)
+        {
+            if(parser.getFieldLength(i) == 0)
+                return 0;
+        }
+        return difficulty;
+    }
 
-                line = line.trim(); // remove leading and trailing whitespaces
-                String[] split = line.split(SPLIT);
-                if(split.length != FIELDS) // check the attribute count
+    /** Create a question from the current line of the parser.
+     * The line must have passed checkQuestion().
+     * @param parser Parser, positioned at a valid line.
+     * @param difficulty Difficulty level from checkQuestion().
+     * @param pool Answer pool of the load (see QuizStringPool), null for
+     *        questions that are only kept for a short time.
+     * @return Question object. */
+    static QuizQuestion createQuestion(QuizDBParser parser, int difficulty, QuizStringPool pool)
+    {
+        int id = parser.getLineNumber(); // we just use the line number as unique id.
+        if(m_compactQuestions)
+        {
+            return QuizCompactQuestion.create(id,
+                                              difficulty,
+                                              parser.getField(1),
+                                              parser.getField(2),
+                                              parser.getField(3),
+                                              parser.getField(4),
+                                              parser.getField(5),
+                                              parser.getFieldInt(6));
+        }
+        return new QuizQuestion(id,
+                                difficulty,
+                                parser.getField(1),  // question
+                                parser.getFieldPooled(2, pool),  // answer 0, answers are shared (see QuizStringPool)
+                                parser.getFieldPooled(3, pool),  // answer 1
+                                parser.getFieldPooled(4, pool),  // answer 2
+                                parser.getFieldPooled(5, pool),  // answer 3
+                                parser.getFieldInt(6));
+    }
+
+    /** Open a database file. The database directory (see
+     * setDatabaseDirectory) is searched first, then the jar.
+     * @param fileName Quiz database file name.
+     * @return Input stream (close it after use) or null if the file does not exist. */
+    static InputStream openDatabase(String fileName)
+    {
+        File directory = m_databaseDirectory;
+        if(directory != null)
+        {
+            File file = new File(directory, fileName);
+            if(file.isFile())
+            {
+                try
                 {
-                    Quiz.Print("Invalid line in quiz database: " + line);
-                    continue;
+                    return new FileInputStream(file);
                 }
-
-                int id = lineNr; // we just use the line number as unique id.
-
-                int difficulty = Integer.parseInt(split[0].trim());
-                if(difficulty > maxDifficulty || difficulty < 1)
-                    continue;
-
-                String question = split[1].trim();
-                String answer0  = split[2].trim();
-                String answer1  = split[3].trim();
-                String answer2  = split[4].trim();
-                String answer3  = split[5].trim();
-                int correctAnswer = Integer.parseInt(split[6].trim());
-                if(question.length() == 0 ||
-                    answer0.length() == 0 ||
-                    answer1.length() == 0 ||
-                    answer2.length() == 0 ||
-                    answer3.length() == 0 )
+                catch(FileNotFoundException e)
                 {
-                    continue;
+                    Quiz.Print("QuizDB: Failed to open " + file.getPath());
                 }
-
-                QuizQuestion q = new QuizQuestion(id,
-                                                  difficulty,
-                                                  question,
-                                                  answer0,
-                                                  answer1,
-                                                  answer2,
-                                                  answer3,
-                                                  correctAnswer);
-                allQuestions.add(q);
             }
         }
-        catch(Exception e)
+        return QuizDB.class.getClassLoader().getResourceAsStream(fileName);
+    }
+
+    /** Loads all questions from the db.
+     * This reads and parses the file, use QuizDBCache.get() instead.
+     * @param fileName Quiz database file name (in the database directory or in the jar).
+     * @param pool Pool for the answers (see QuizStringPool), null for own strings.
+     * @return Array of questions. Returns an empty array, if there is a problem. */
+    static QuizQuestion[] loadAllQuestions(String fileName, QuizStringPool pool)
+    {
+        Quiz.Print("Loading from quiz database: " + fileName);
+
+        InputStream stream = null;
+        try
         {
-            Quiz.Print(e.getLocalizedMessage());
-            e.printStackTrace();
-            Quiz.Print("QuizDB: Failed to read from " + fileName);
+            stream = openDatabase(fileName);
+            if(stream == null)
+            {
+                Quiz.Print("QuizDB: Failed to read from " + fileName);
+                return new QuizQuestion[0];
+            }
+            return loadAllQuestions(stream, fileName, pool);
         }
         finally
         {
@@ -215,6 +457,62 @@ public class QuizDB
                 Quiz.Print("Failed to close stream.");
             }
         }
+    }
+
+    /** Loads all questions from a stream. The stream may contain a
+     * text database (see the class description) or a binary database
+     * (see QuizDBBinary), the format is detected automatically.
+     * The stream is not closed.
+     * @param stream Database content.
+     * @param fileName Database name (for the log).
+     * @param pool Pool for the answers (see QuizStringPool), null for own strings.
+     *        The pool can be shared with other loads, e.g. of the other languages.
+     * @return Array of questions. Returns the questions read so far, if there is a problem. */
+    static QuizQuestion[] loadAllQuestions(InputStream stream, String fileName, QuizStringPool pool)
+    {
+        // compact questions keep their answers in one array, nothing to share
+        if(m_compactQuestions)
+            pool = null;
+        int maxDifficulty = getMaxDifficulty();
+        Vector<QuizQuestion> allQuestions =
+            new Vector<QuizQuestion>(EXPECTED_QUESTIONS);
+
+        try
+        {
+            BufferedInputStream in = new BufferedInputStream(stream);
+            if(m_loadMode == LoadMode.PARALLEL && !QuizDBBinary.isBinary(in))
+            {
+                QuizQuestion[] questions = QuizDBParallelLoader.load(in, maxDifficulty, pool);
+                if(pool != null)
+                    Quiz.Print(pool.getStatistics());
+                return questions;
+            }
+
+            if(QuizDBBinary.isBinary(in))
+            {
+                QuizQuestion[] questions = QuizDBBinary.read(in, pool);
+                if(pool != null)
+                    Quiz.Print(pool.getStatistics());
+                return questions;
+            }
+            QuizDBParser parser = new QuizDBParser(new InputStreamReader(in, "UTF-8"));
+
+            // load all questions, line by line
+            while(parser.nextLine())
+            {
+                QuizQuestion q = parseQuestion(parser, maxDifficulty, pool);
+                if(q != null)
+                    allQuestions.add(q);
+            }
+            if(pool != null)
+                Quiz.Print(pool.getStatistics());
+        }
+        catch(Exception e)
+        {
+            Quiz.Print(e.getLocalizedMessage());
+            e.printStackTrace();
+            Quiz.Print("QuizDB: Failed to read from " + fileName);
+        }
 
         // return as an array. this makes the interface more intuitive.
         return (QuizQuestion[]) allQuestions.toArray(
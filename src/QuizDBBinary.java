@@ -0,0 +1,276 @@
+package javaquiz;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/** Compact binary question database format.
+ *
+ * Loading a binary database needs no text parsing at all: the file is
+ * read in one go and only the question strings are decoded. Use the
+ * main method to convert a text database (.qdb) to the binary format:
+ *
+ *      java -cp quiz.jar javaquiz.QuizDBBinary en.qdb en.qdbb
+ *
+ * QuizDB detects the format by the magic number, so a binary database
+ * can simply replace the text database in the jar (e.g. as "en.qdb").
+ *
+ * Layout (all numbers are big-endian):
+ * <pre>
+ *  Header (20 bytes):
+ *      int   MAGIC ("QZDB")
+ *      short VERSION
+ *      short flags (0)
+ *      int   record count
+ *      int   max. difficulty level (D)
+ *      int   string table size in bytes
+ *  Level table ((D+2) ints):
+ *      first record of level 0, 1, ..., D and the record count at the end.
+ *      The records of level n are [level[n], level[n+1]).
+ *  Records (RECORD_SIZE bytes each, sorted by difficulty and id):
+ *      int   question id
+ *      byte  difficulty
+ *      byte  correct answer (0..3)
+ *      short reserved (0)
+ *      int[6] offsets into the string table: question, answer 0..3 and
+ *             the end of answer 3. String i is [offset[i], offset[i+1]).
+ *  String table:
+ *      UTF-8 encoded text.
+ * </pre>
+ */
+public class QuizDBBinary
+{
+    /** File magic number: "QZDB". */
+    public static final int MAGIC = 0x515A4442;
+    /** Current format version. */
+    public static final short VERSION = 1;
+    /** Size of the header in bytes. */
+    public static final int HEADER_SIZE = 20;
+    /** Size of one question record in bytes. */
+    public static final int RECORD_SIZE = 32;
+    /** Strings per record: question and four answers. */
+    public static final int STRINGS = 5;
+
+    /** Text encoding of the string table. */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Only static methods. */
+    private QuizDBBinary()
+    {
+    }
+
+    /** Checks if a stream starts with the binary database magic number.
+     * The stream position is not changed.
+     * @param in Stream, must support mark/reset (e.g. BufferedInputStream).
+     * @return true if the stream contains a binary database.
+     * @throws IOException if the stream can't be read. */
+    public static boolean isBinary(InputStream in) throws IOException
+    {
+        in.mark(4);
+        int magic = 0;
+        int i;
+        for(i=0;i<4;i++)
+        {
+            int b = in.read();
+            if(b < 0)
+                break;
+            magic = (magic << 8) | b;
+        }
+        in.reset();
+        return i == 4 && magic == MAGIC;
+    }
+
+    /** Read a binary database. The questions are QuizCompactQuestion
+     * objects if QuizDB.isCompactQuestions() is set.
+     * @param in Stream positioned at the magic number.
+     * @param pool Answer pool of the load (see QuizStringPool) or null.
+     * @return Array of questions (sorted by difficulty and id).
+     * @throws IOException if the stream can't be read or has an invalid format
+     *         (sizes, level table, difficulty, correct answer or string offsets). */
+    public static QuizQuestion[] read(InputStream in, QuizStringPool pool) throws IOException
+    {
+        DataInputStream din = new DataInputStream(in);
+        if(din.readInt() != MAGIC)
+            throw new IOException("Not a binary quiz database.");
+        short version = din.readShort();
+        if(version != VERSION)
+            throw new IOException("Unsupported quiz database version: " + version);
+        din.readShort(); // flags
+        int count = din.readInt();
+        int maxDifficulty = din.readInt();
+        int stringTableSize = din.readInt();
+        // the difficulty of a record is a byte
+        if(count < 0 || maxDifficulty < 0 || maxDifficulty > Byte.MAX_VALUE || stringTableSize < 0)
+            throw new IOException("Invalid quiz database header.");
+        long size = 4L*(maxDifficulty+2) + (long)count*RECORD_SIZE + stringTableSize;
+        if(size > Integer.MAX_VALUE)
+            throw new IOException("Quiz database too large: " + size + " bytes.");
+
+        // read the rest of the file in one go
+        int levelTableSize = 4*(maxDifficulty+2);
+        byte[] data = new byte[(int)size];
+        din.readFully(data);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        // level table: starts at record 0, ends at the record count, never decreases
+        int[] levels = new int[maxDifficulty+2];
+        for(int level=0;level<levels.length;level++)
+        {
+            levels[level] = buffer.getInt(4*level);
+            if(levels[level] < (level == 0 ? 0 : levels[level-1]) || levels[level] > count)
+                throw new IOException("Invalid level table.");
+        }
+        if(levels[0] != 0 || levels[1] != 0 || levels[maxDifficulty+1] != count)
+            throw new IOException("Invalid level table.");
+
+        int recordStart = levelTableSize;
+        int stringStart = recordStart + count*RECORD_SIZE;
+        boolean compact = QuizDB.isCompactQuestions();
+        int[] offsets = new int[STRINGS+1];
+        String[] text = new String[STRINGS];
+        QuizQuestion[] questions = new QuizQuestion[count];
+        for(int i=0;i<count;i++)
+        {
+            int pos = recordStart + i*RECORD_SIZE;
+            int id = buffer.getInt(pos);
+            int difficulty = buffer.get(pos+4);
+            int correctAnswer = buffer.get(pos+5);
+            if(difficulty < 1 || difficulty > maxDifficulty || correctAnswer < 0 || correctAnswer > 3)
+                throw new IOException("Invalid difficulty or correct answer in record " + i);
+            if(i < levels[difficulty] || i >= levels[difficulty+1])
+                throw new IOException("Record " + i + " is not in the level table range of level " + difficulty);
+            for(int j=0;j<=STRINGS;j++)
+                offsets[j] = buffer.getInt(pos+8+4*j);
+            for(int j=0;j<STRINGS;j++)
+            {
+                if(offsets[j] < 0 || offsets[j] > offsets[j+1] || offsets[j+1] > stringTableSize)
+                    throw new IOException("Invalid string offset in record " + i);
+            }
+            if(compact)
+            {
+                // the texts of a record follow each other, no need to decode them
+                for(int j=0;j<=STRINGS;j++)
+                    offsets[j] += stringStart;
+                questions[i] = QuizCompactQuestion.create(id, difficulty, correctAnswer,
+                                                          data, offsets[0], Arrays.copyOfRange(offsets, 1, STRINGS+1));
+                continue;
+            }
+            for(int j=0;j<STRINGS;j++)
+            {
+                text[j] = new String(data, stringStart+offsets[j], offsets[j+1]-offsets[j], UTF8);
+                if(j > 0) // answers are shared (see QuizStringPool)
+                    text[j] = QuizStringPool.intern(pool, text[j]);
+            }
+            questions[i] = new QuizQuestion(id, difficulty,
+                                            text[0], text[1], text[2], text[3], text[4],
+                                            correctAnswer);
+        }
+        return questions;
+    }
+
+    /** Write a binary database.
+     * @param questions Questions to write (the array is not modified).
+     * @param maxDifficulty Highest difficulty level. Questions outside 1..maxDifficulty are skipped.
+     * @param out Output stream (not closed).
+     * @return Number of written questions.
+     * @throws IOException if writing fails. */
+    public static int write(QuizQuestion[] questions, int maxDifficulty, OutputStream out)
+        throws IOException
+    {
+        // sort by difficulty, so each level is one block of records
+        QuizQuestion[] sorted = new QuizQuestion[questions.length];
+        int count = 0;
+        for(int i=0;i<questions.length;i++)
+        {
+            int difficulty = questions[i].getDifficulty();
+            if(difficulty >= 1 && difficulty <= maxDifficulty)
+                sorted[count++] = questions[i];
+        }
+        sorted = Arrays.copyOf(sorted, count);
+        Arrays.sort(sorted, new QuizDB.QuestionComparator());
+
+        // level table
+        int[] levels = new int[maxDifficulty+2];
+        for(int i=0,level=0;level<levels.length;level++)
+        {
+            while(i < count && sorted[i].getDifficulty() < level)
+                i++;
+            levels[level] = i;
+        }
+
+        // string table and records
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        ByteBuffer records = ByteBuffer.allocate(count*RECORD_SIZE);
+        for(int i=0;i<count;i++)
+        {
+            QuizQuestion q = sorted[i];
+            records.putInt(q.getID());
+            records.put((byte)q.getDifficulty());
+            records.put((byte)q.getCorrectAnswer());
+            records.putShort((short)0);
+            for(int j=0;j<STRINGS;j++)
+            {
+                records.putInt(strings.size());
+                byte[] utf8 = (j == 0 ? q.getQuestion() : q.getAnswer(j-1)).getBytes(UTF8);
+                strings.write(utf8, 0, utf8.length);
+            }
+            records.putInt(strings.size());
+        }
+
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+        dout.writeInt(MAGIC);
+        dout.writeShort(VERSION);
+        dout.writeShort(0); // flags
+        dout.writeInt(count);
+        dout.writeInt(maxDifficulty);
+        dout.writeInt(strings.size());
+        for(int i=0;i<levels.length;i++)
+            dout.writeInt(levels[i]);
+        dout.write(records.array());
+        strings.writeTo(dout);
+        dout.flush();
+        return count;
+    }
+
+    /** Converter: reads a question database (text or binary) from the
+     * filesystem and writes it in the binary format.
+     * @param args Input file and output file. */
+    public static void main(String[] args)
+    {
+        if(args.length != 2)
+        {
+            System.out.println("Usage: java -cp quiz.jar javaquiz.QuizDBBinary <input.qdb> <output.qdbb>");
+            System.exit(1);
+        }
+
+        InputStream in = null;
+        OutputStream out = null;
+        try
+        {
+            long start = System.currentTimeMillis();
+            in = new FileInputStream(args[0]);
+            QuizQuestion[] questions = QuizDB.loadAllQuestions(in, args[0], null);
+            out = new FileOutputStream(args[1]);
+            int count = write(questions, QuizDB.getMaxDifficulty(), out);
+            Quiz.Print("Converted " + count + " questions from " + args[0] + " to " + args[1] +
+                       " in " + (System.currentTimeMillis()-start) + " ms.");
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("QuizDBBinary: Conversion failed: " + e.getLocalizedMessage());
+            System.exit(1);
+        }
+        finally
+        {
+            try{
+                if(in != null)
+                    in.close();
+                if(out != null)
+                    out.close();
+            } catch(IOException ioe) {
+                Quiz.Print("Failed to close stream.");
+            }
+        }
+    }
+}
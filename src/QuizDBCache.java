@@ -0,0 +1,287 @@
+package javaquiz;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/** Process-wide cache for parsed question databases (see QuizDBIndex).
+ *
+ * Every database file is read and parsed only once per process. The
+ * cache is keyed by the database file name (e.g. "en.qdb") and it is
+ * safe to use from several threads: if two threads ask for the same
+ * database at the same time, only one of them parses the file and the
+ * other one waits for the result.
+ *
+ * prefetch() loads a database on a background thread, e.g. at startup.
+ * Use invalidate() or invalidateAll() to drop parsed databases and
+ * reload() to parse a database again (e.g. after the file has changed).
+ * Games that already hold questions from an older version keep them.
+ *
+ * The databases in the cache share one answer pool (see QuizStringPool),
+ * so equal answers of all languages are one String. Replacing or
+ * dropping a database starts a new pool with the answers of the other
+ * databases, so the strings of the old version are not kept alive.
+ */
+public class QuizDBCache
+{
+    /** Parsed databases (or the pending parse job), keyed by file name. */
+    private static final ConcurrentHashMap<String, FutureTask<QuizDBIndex>> m_cache =
+        new ConcurrentHashMap<String, FutureTask<QuizDBIndex>>();
+    /** Answer pool of the current generation of databases, created by getPool(). */
+    private static QuizStringPool m_pool = null;
+
+    /** Only static methods. */
+    private QuizDBCache()
+    {
+    }
+
+    /** Get the parsed questions of a database. The database is loaded
+     * by the calling thread if it is not in the cache yet.
+     * @param fileName Quiz database file name (in the database directory or in the jar).
+     * @return Question index. Empty if the database failed to load. */
+    public static QuizDBIndex get(String fileName)
+    {
+        FutureTask<QuizDBIndex> task = m_cache.get(fileName);
+        if(task == null)
+        {
+            FutureTask<QuizDBIndex> newTask = createTask(fileName);
+            task = m_cache.putIfAbsent(fileName, newTask);
+            if(task == null) // we have won the race, so we have to do the work
+            {
+                task = newTask;
+                task.run();
+            }
+        }
+        return waitFor(fileName, task);
+    }
+
+    /** Start loading a database on a background thread, if it is not
+     * in the cache yet. A get() call for this database waits for the
+     * background thread instead of loading the database again.
+     * @param fileName Quiz database file name. */
+    public static void prefetch(String fileName)
+    {
+        if(m_cache.containsKey(fileName))
+            return;
+        final FutureTask<QuizDBIndex> task = createTask(fileName);
+        if(m_cache.putIfAbsent(fileName, task) != null)
+            return; // somebody else is faster
+
+        Thread t = new Thread(task, "QuizDB prefetch " + fileName);
+        t.setDaemon(true); // don't keep the application alive
+        t.start();
+    }
+
+    /** Remove a database from the cache. The next get() call will load
+     * the database again.
+     * @param fileName Quiz database file name. */
+    public static void invalidate(String fileName)
+    {
+        m_cache.remove(fileName);
+        newPool(fileName);
+    }
+
+    /** Remove all databases from the cache. */
+    public static void invalidateAll()
+    {
+        m_cache.clear();
+        synchronized(QuizDBCache.class)
+        {
+            m_pool = null;
+        }
+    }
+
+    /** Parse a database again and replace the cached version.
+     * The old version is served to other threads until the new one is
+     * ready, so this method does not block running games. The levels
+     * without changes keep their decks (see QuizDBIndex.keepDecks).
+     * @param fileName Quiz database file name.
+     * @return The new question index. */
+    public static QuizDBIndex reload(String fileName)
+    {
+        final QuizDBIndex old = getLoaded(fileName);
+        newPool(fileName);
+        final FutureTask<QuizDBIndex> parse = createTask(fileName);
+        parse.run(); // parse outside of the cache
+        FutureTask<QuizDBIndex> task = parse;
+        if(old != null)
+        {
+            task = new FutureTask<QuizDBIndex>(new Callable<QuizDBIndex>() {
+                public QuizDBIndex call() throws Exception
+                {
+                    return parse.get().keepDecks(old);
+                }
+            });
+            task.run();
+        }
+        m_cache.put(fileName, task);
+        return waitFor(fileName, task);
+    }
+
+    /** Apply the new lines of the delta file of a database (see QuizDBDelta)
+     * to the cached index and replace it. Only the new lines are parsed.
+     * The old index is served to other threads until the new one is ready.
+     * @param fileName Quiz database file name.
+     * @return The new question index. */
+    public static QuizDBIndex applyDelta(String fileName)
+    {
+        QuizDBIndex index = get(fileName);
+        QuizDBIndex updated = QuizDBDelta.apply(index, fileName, getPool());
+        if(updated == null) // the delta file has been replaced, start from scratch
+            return reload(fileName);
+        if(updated == index)
+            return index;
+        m_cache.put(fileName, done(updated));
+        return updated;
+    }
+
+    /** Replace a cached index with a new version of the same questions,
+     * e.g. after the delta file has been compacted (see QuizDBDelta).
+     * Nothing happens if the cache has another index by now.
+     * @param fileName Quiz database file name.
+     * @param index The index in the cache.
+     * @param updated The new version.
+     * @return true if the index has been replaced. */
+    static boolean replace(String fileName, QuizDBIndex index, QuizDBIndex updated)
+    {
+        FutureTask<QuizDBIndex> task = m_cache.get(fileName);
+        if(task == null || getLoaded(fileName) != index)
+            return false;
+        return m_cache.replace(fileName, task, done(updated));
+    }
+
+    /** Get a database from the cache, if it is loaded.
+     * @param fileName Quiz database file name.
+     * @return The index or null if it is not in the cache or still loading. */
+    private static QuizDBIndex getLoaded(String fileName)
+    {
+        FutureTask<QuizDBIndex> task = m_cache.get(fileName);
+        if(task == null || !task.isDone())
+            return null;
+        try
+        {
+            return task.get();
+        }
+        catch(Exception e) // the task is done, get() doesn't wait
+        {
+            return null;
+        }
+    }
+
+    /** Is the database already parsed and in the cache?
+     * @param fileName Quiz database file name.
+     * @return true if get() will return without loading the database. */
+    public static boolean isCached(String fileName)
+    {
+        FutureTask<QuizDBIndex> task = m_cache.get(fileName);
+        return task != null && task.isDone();
+    }
+
+    /** Get the answer pool of the current generation.
+     * @return The pool, null if pooling is disabled. */
+    private static synchronized QuizStringPool getPool()
+    {
+        if(m_pool == null)
+            m_pool = QuizStringPool.create();
+        return m_pool;
+    }
+
+    /** Start a new answer pool without the strings of a database that is
+     * replaced or dropped. The answers of the other loaded databases are
+     * added, so the next loads still share them.
+     * @param fileName The database that is replaced. */
+    private static synchronized void newPool(String fileName)
+    {
+        QuizStringPool pool = QuizStringPool.create();
+        if(pool != null)
+        {
+            for(Map.Entry<String, FutureTask<QuizDBIndex>> entry : m_cache.entrySet())
+            {
+                QuizDBIndex index = entry.getKey().equals(fileName) ? null : getLoaded(entry.getKey());
+                if(index == null)
+                    continue;
+                QuizQuestion[] questions = index.getQuestions();
+                for(int i=0;i<questions.length;i++)
+                {
+                    if(questions[i] instanceof QuizCompactQuestion)
+                        continue; // no answer strings
+                    for(int j=0;j<questions[i].getAnswerCount();j++)
+                        pool.add(questions[i].getAnswer(j));
+                }
+            }
+        }
+        m_pool = pool;
+    }
+
+    /** Wrap an index as a finished job.
+     * @param index The index.
+     * @return Job that has already run. */
+    private static FutureTask<QuizDBIndex> done(final QuizDBIndex index)
+    {
+        FutureTask<QuizDBIndex> task = new FutureTask<QuizDBIndex>(new Callable<QuizDBIndex>() {
+            public QuizDBIndex call()
+            {
+                return index;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    /** Create the job that parses a database.
+     * @param fileName Quiz database file name.
+     * @return Parse job, not started yet. */
+    private static FutureTask<QuizDBIndex> createTask(final String fileName)
+    {
+        return new FutureTask<QuizDBIndex>(new Callable<QuizDBIndex>() {
+            public QuizDBIndex call()
+            {
+                QuizStringPool pool = getPool();
+                QuizDBIndex index = new QuizDBIndex(QuizDB.loadAllQuestions(fileName, pool),
+                                                    QuizDB.getMaxDifficulty());
+                QuizDBIndex updated = QuizDBDelta.apply(index, fileName, pool);
+                return (updated != null) ? updated : index;
+            }
+        });
+    }
+
+    /** Wait until a parse job is finished.
+     * @param fileName Quiz database file name (for the log).
+     * @param task The parse job.
+     * @return Question index. Empty if something fails. */
+    private static QuizDBIndex waitFor(String fileName, FutureTask<QuizDBIndex> task)
+    {
+        boolean interrupted = false;
+        try
+        {
+            while(true)
+            {
+                try
+                {
+                    QuizDBIndex index = task.get();
+                    if(index.getQuestionCount() == 0) // don't keep a broken database
+                        m_cache.remove(fileName, task);
+                    return index;
+                }
+                catch(InterruptedException e)
+                {
+                    interrupted = true; // keep waiting, restore the flag later
+                }
+                catch(ExecutionException e)
+                {
+                    Quiz.Print("QuizDBCache: Failed to load " + fileName);
+                    m_cache.remove(fileName, task); // try again next time
+                    return new QuizDBIndex(new QuizQuestion[0],
+                                           QuizDB.getMaxDifficulty());
+                }
+            }
+        }
+        finally
+        {
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package javaquiz;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Incremental updates for a question database.
+ *
+ * Editors don't rewrite a large database to change a few questions.
+ * Instead they append the changes to a delta file next to the database
+ * in the database directory (e.g. "en.qdb.delta" for "en.qdb"). The
+ * delta file is a text file (see QuizDBParser for quoting) with one
+ * operation per line, keyed by the question id:
+ *
+ *      +; 1000001; 5; How is a play on words commonly described?; Pan; Pin; Pen; Pun; 3
+ *      =; 17; 2; Fixed question text?; A; B; C; D; 0
+ *      -; 42
+ *
+ * "+" adds a question, "=" replaces a question and "-" retires a
+ * question. Later lines win. The file is append-only: QuizDBIndex
+ * remembers how many bytes of the delta file it contains, so when the
+ * file grows only the new lines are parsed and applied on top of the
+ * cached index (see QuizDBCache.applyDelta). No part of the base
+ * database is parsed again.
+ *
+ * When the delta file gets large, compact() writes the current state as
+ * new base database (binary format, see QuizDBBinary) and empties the
+ * delta file. The cached index stays, it already has these questions.
+ */
+public class QuizDBDelta
+{
+    /** Suffix of the delta file name. */
+    public final static String SUFFIX = ".delta";
+    /** Fields of an add or update line. */
+    private final static int FIELDS_UPDATE = 9;
+    /** Fields of a retire line. */
+    private final static int FIELDS_RETIRE = 2;
+
+    /** Only static methods. */
+    private QuizDBDelta()
+    {
+    }
+
+    /** The delta file of a database.
+     * @param fileName Database file name.
+     * @return Delta file or null if there is no database directory. */
+    public static File getDeltaFile(String fileName)
+    {
+        File directory = QuizDB.getDatabaseDirectory();
+        if(directory == null)
+            return null;
+        return new File(directory, fileName + SUFFIX);
+    }
+
+    /** Apply the part of the delta file that is not in the index yet.
+     * @param index Current index of the database.
+     * @param fileName Database file name.
+     * @param pool Pool for the answers of the new questions (see QuizStringPool) or null.
+     * @return New index with the changes, or the same index if there is nothing new.
+     *         Returns null if the delta file is shorter than the part in the index
+     *         (it has been compacted or replaced), then the database has to be loaded again. */
+    public static QuizDBIndex apply(QuizDBIndex index, String fileName, QuizStringPool pool)
+    {
+        File file = getDeltaFile(fileName);
+        if(file == null || !file.isFile())
+            return (index.getDeltaOffset() == 0) ? index : null;
+
+        long offset = index.getDeltaOffset();
+        long length = file.length();
+        if(length < offset)
+            return null;
+        if(length == offset)
+            return index;
+
+        try
+        {
+            byte[] data = readTail(file, offset, length);
+            // only complete lines, the editor might still write the last one
+            int end = data.length;
+            while(end > 0 && data[end-1] != '\n')
+                end--;
+            if(end == 0)
+                return index;
+
+            Map<Integer, QuizQuestion> changes = parse(
+                    new ByteArrayInputStream(data, 0, end), file.getName(),
+                    index.getMaxDifficulty(), pool);
+            Quiz.Print("QuizDBDelta: " + changes.size() + " changes for " + fileName);
+            return index.applyDelta(changes, offset+end);
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("QuizDBDelta: Failed to read " + file.getPath() + ": " + e.getLocalizedMessage());
+            return index;
+        }
+    }
+
+    /** Parse delta lines.
+     * @param in Delta file content (UTF-8).
+     * @param name File name for the log.
+     * @param maxDifficulty Highest valid difficulty level.
+     * @param pool Pool for the answers or null.
+     * @return Changes in file order: question id -> new question, or null if the question is retired.
+     * @throws IOException if the stream can't be read. */
+    static Map<Integer, QuizQuestion> parse(InputStream in, String name, int maxDifficulty,
+                                            QuizStringPool pool)
+        throws IOException
+    {
+        // LinkedHashMap: a later line for the same id replaces the earlier one
+        Map<Integer, QuizQuestion> changes = new LinkedHashMap<Integer, QuizQuestion>();
+        QuizDBParser parser = new QuizDBParser(new InputStreamReader(in, "UTF-8"));
+        while(parser.nextLine())
+        {
+            if(parser.getFieldCount() == 0)
+                continue; // empty line
+            try
+            {
+                String op = parser.getField(0);
+                int id = parser.getFieldInt(1);
+                if(op.equals("-") && parser.getFieldCount() == FIELDS_RETIRE)
+                {
+                    changes.put(Integer.valueOf(id), null);
+                    continue;
+                }
+                if((op.equals("+") || op.equals("=")) && parser.getFieldCount() == FIELDS_UPDATE)
+                {
+                    QuizQuestion q = createQuestion(parser, id, maxDifficulty, pool);
+                    if(q != null)
+                    {
+                        changes.put(Integer.valueOf(id), q);
+                        continue;
+                    }
+                }
+            }
+            catch(NumberFormatException e)
+            {
+                // reported below
+            }
+            Quiz.Print("Invalid line in " + name + ": " + parser.getLineNumber());
+        }
+        return changes;
+    }
+
+    /** Create the question of an add or update line.
+     * @param parser Parser, positioned at the line.
+     * @param id Question id.
+     * @param maxDifficulty Highest valid difficulty level.
+     * @param pool Answer pool or null.
+     * @return Question or null if the line is invalid. */
+    private static QuizQuestion createQuestion(QuizDBParser parser, int id, int maxDifficulty,
+                                               QuizStringPool pool)
+    {
+        int difficulty = parser.getFieldInt(2);
+        int correctAnswer = parser.getFieldInt(8);
+        if(difficulty < 1 || difficulty > maxDifficulty || correctAnswer < 0 || correctAnswer > 3)
+            return null;
+        for(int i=3;i<8;i++)
+        {
+            if(parser.getFieldLength(i) == 0)
+                return null;
+        }
+        return new QuizQuestion(id, difficulty,
+                                parser.getField(3), parser.getFieldPooled(4, pool), parser.getFieldPooled(5, pool),
+                                parser.getFieldPooled(6, pool), parser.getFieldPooled(7, pool),
+                                correctAnswer);
+    }
+
+    /** Write the current state of a database (base and delta) as new
+     * base database and empty the delta file. The database must be in
+     * the database directory. The new base uses the binary format, so
+     * the question ids of added questions are kept.
+     * Lines that are not complete yet stay in the delta file. Nothing
+     * happens if somebody appends to the delta file in the meantime, the
+     * next compaction will pick it up.
+     * @param fileName Database file name.
+     * @return true if the database has been compacted. */
+    public static boolean compact(String fileName)
+    {
+        File directory = QuizDB.getDatabaseDirectory();
+        File deltaFile = getDeltaFile(fileName);
+        if(directory == null || deltaFile == null || !deltaFile.isFile())
+            return false;
+
+        QuizDBIndex index = QuizDBCache.applyDelta(fileName);
+        File base = new File(directory, fileName);
+        File temp = new File(directory, fileName + ".tmp");
+        try
+        {
+            QuizQuestion[] questions = index.getQuestions();
+            OutputStream out = new FileOutputStream(temp);
+            try
+            {
+                QuizDBBinary.write(questions, index.getMaxDifficulty(), out);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            // the part of the delta file that is not in the index (an incomplete line)
+            long length = deltaFile.length();
+            byte[] rest = readTail(deltaFile, Math.min(index.getDeltaOffset(), length), length);
+            boolean newLines = (length < index.getDeltaOffset());
+            for(int i=0;i<rest.length;i++)
+                newLines |= (rest[i] == '\n');
+            if(newLines)
+            {
+                Quiz.Print("QuizDBDelta: " + deltaFile.getName() + " has changed, compaction skipped.");
+                temp.delete();
+                return false;
+            }
+
+            // File.renameTo does not replace an existing file on every platform
+            if(!temp.renameTo(base) && !(base.delete() && temp.renameTo(base)))
+                throw new IOException("Can't replace " + base.getPath());
+            out = new FileOutputStream(deltaFile); // empty the delta file
+            try
+            {
+                out.write(rest);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("QuizDBDelta: Compaction of " + fileName + " failed: " + e.getLocalizedMessage());
+            temp.delete();
+            return false;
+        }
+
+        Quiz.Print("QuizDBDelta: Compacted " + fileName + " (" + index.getQuestionCount() + " questions)");
+        // the new base has the same questions as the index, no need to load it
+        if(!QuizDBCache.replace(fileName, index, index.withDeltaOffset(0)))
+            QuizDBCache.reload(fileName);
+        return true;
+    }
+
+    /** Read the end of a file.
+     * @param file The file.
+     * @param offset First byte to read.
+     * @param length File length.
+     * @return Bytes from offset to length.
+     * @throws IOException if the file can't be read. */
+    private static byte[] readTail(File file, long offset, long length) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            byte[] data = new byte[(int)(length-offset)];
+            raf.seek(offset);
+            raf.readFully(data);
+            return data;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
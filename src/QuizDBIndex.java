@@ -0,0 +1,356 @@
+package javaquiz;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/** Immutable index over the questions of one database.
+ *
+ * The index is built once when the database is loaded (see QuizDBCache).
+ * For each difficulty level it stores an array with the questions of
+ * this level, so a random question of a level can be drawn in O(1)
+ * without scanning the whole database. Questions can also be looked up
+ * by their id in O(1) (see QuizIntMap).
+ *
+ * A delta file (see QuizDBDelta) creates a new index that shares
+ * everything the changes don't touch: only the levels with changed
+ * questions are copied, and the changed questions are kept in a small
+ * id map on top of the id map of the loaded file.
+ *
+ * The only mutable part is the deck (see QuizDeck) for draws without
+ * repetition. The decks of the levels without changes are carried over
+ * to the new index of a delta or a reload (see keepDecks).
+ */
+public class QuizDBIndex
+{
+    /** Questions of each difficulty level, in file order (changed questions at the end).
+     *  m_levels[difficulty] is empty if there is no question for this level. */
+    private final QuizQuestion[][] m_levels;
+    /** All questions of the loaded database file, in file order (shared by the delta versions). */
+    private final QuizQuestion[] m_base;
+    /** Question id -> position in m_base. */
+    private final QuizIntMap m_baseIDs;
+    /** Ids of the questions changed by the delta file. */
+    private final int[] m_changedIDs;
+    /** Current version of the changed questions, null if the question is retired. */
+    private final QuizQuestion[] m_changed;
+    /** Question id -> position in m_changed, null if there are no changes. */
+    private final QuizIntMap m_changedMap;
+    /** Number of questions in the levels. */
+    private final int m_count;
+    /** How many bytes of the delta file are contained in this index (see QuizDBDelta). */
+    private final long m_deltaOffset;
+    /** Shuffled decks for drawQuestion(). */
+    private final QuizDeck m_deck;
+
+    /** Build the index.
+     * @param questions All questions of the database. The array is not copied, don't modify it afterwards.
+     * @param maxDifficulty Highest difficulty level. Questions above this level are not indexed. */
+    public QuizDBIndex(QuizQuestion[] questions, int maxDifficulty)
+    {
+        this(questions, maxDifficulty, 0);
+    }
+
+    /** Build the index for a database with applied delta file.
+     * @param questions All questions of the database. The array is not copied, don't modify it afterwards.
+     * @param maxDifficulty Highest difficulty level. Questions above this level are not indexed.
+     * @param deltaOffset How many bytes of the delta file are contained in the questions. */
+    public QuizDBIndex(QuizQuestion[] questions, int maxDifficulty, long deltaOffset)
+    {
+        m_base = questions;
+        m_deltaOffset = deltaOffset;
+        m_changedIDs = new int[0];
+        m_changed = new QuizQuestion[0];
+        m_changedMap = null;
+
+        // count the questions per level, so we can allocate
+        // each level array with the exact size.
+        int[] count = new int[maxDifficulty+1];
+        for(int i=0;i<questions.length;i++)
+        {
+            int difficulty = questions[i].getDifficulty();
+            if(difficulty >= 1 && difficulty <= maxDifficulty)
+                count[difficulty]++;
+        }
+
+        m_levels = new QuizQuestion[maxDifficulty+1][];
+        for(int level=0;level<=maxDifficulty;level++)
+            m_levels[level] = new QuizQuestion[count[level]];
+        m_deck = new QuizDeck(count);
+        m_count = sum(count);
+        Arrays.fill(count, 0); // reuse as fill position
+        for(int i=0;i<questions.length;i++)
+        {
+            int difficulty = questions[i].getDifficulty();
+            if(difficulty >= 1 && difficulty <= maxDifficulty)
+                m_levels[difficulty][count[difficulty]++] = questions[i];
+        }
+
+        m_baseIDs = new QuizIntMap(questions.length);
+        for(int i=0;i<questions.length;i++)
+            m_baseIDs.put(questions[i].getID(), i);
+    }
+
+    /** Create a new version of an index.
+     * @param index Index with the loaded database file.
+     * @param levels Questions of each level.
+     * @param changedIDs Ids of the changed questions.
+     * @param changed Changed questions, null if retired.
+     * @param changedMap Id -> position in changed.
+     * @param deltaOffset Delta file offset.
+     * @param deck Decks for the levels. */
+    private QuizDBIndex(QuizDBIndex index, QuizQuestion[][] levels,
+                        int[] changedIDs, QuizQuestion[] changed, QuizIntMap changedMap,
+                        long deltaOffset, QuizDeck deck)
+    {
+        m_base = index.m_base;
+        m_baseIDs = index.m_baseIDs;
+        m_levels = levels;
+        m_changedIDs = changedIDs;
+        m_changed = changed;
+        m_changedMap = changedMap;
+        m_deltaOffset = deltaOffset;
+        m_deck = deck;
+        m_count = sum(getLevelSizes(levels));
+    }
+
+    /** How many questions are in the database.
+     * @return Question count (all levels). */
+    public int getQuestionCount()
+    {
+        return m_count;
+    }
+
+    /** Get all questions of the database.
+     * @return New array with the questions of level 1, 2, ... */
+    public QuizQuestion[] getQuestions()
+    {
+        QuizQuestion[] questions = new QuizQuestion[m_count];
+        int count = 0;
+        for(int level=1;level<m_levels.length;level++)
+        {
+            System.arraycopy(m_levels[level], 0, questions, count, m_levels[level].length);
+            count += m_levels[level].length;
+        }
+        return questions;
+    }
+
+    /** Highest difficulty level of this index.
+     * @return Max. difficulty level. */
+    public int getMaxDifficulty()
+    {
+        return m_levels.length-1;
+    }
+
+    /** How many questions are available for a difficulty level.
+     * @param difficulty Difficulty level (1..max).
+     * @return Question count, 0 if the level is out of range. */
+    public int getQuestionCount(int difficulty)
+    {
+        if(difficulty < 0 || difficulty >= m_levels.length)
+            return 0;
+        return m_levels[difficulty].length;
+    }
+
+    /** Get the n-th question of a difficulty level.
+     * @param difficulty Difficulty level (1..max).
+     * @param n Position within the level (0..getQuestionCount(difficulty)-1).
+     * @return Question object. */
+    public QuizQuestion getQuestion(int difficulty, int n)
+    {
+        return m_levels[difficulty][n];
+    }
+
+    /** Draw the next question of a difficulty level from the shuffled deck
+     * (see QuizDeck): no question comes again before all questions of the
+     * level have been drawn.
+     * @param difficulty Difficulty level (1..max).
+     * @return Question object or null if there is no question for this level. */
+    public QuizQuestion drawQuestion(int difficulty)
+    {
+        int n = m_deck.draw(difficulty);
+        if(n < 0)
+            return null;
+        return m_levels[difficulty][n];
+    }
+
+    /** Draw one question of each difficulty level from the shuffled decks,
+     * without allocating (see QuizDeck).
+     * @param questions Result: the questions of level 1, 2, ... in the order
+     *        of the levels. Empty levels are skipped, the rest of the array is not changed.
+     * @return Number of questions in the array. */
+    public int drawQuestions(QuizQuestion[] questions)
+    {
+        int found = 0;
+        for(int level=1;level<m_levels.length && found<questions.length;level++)
+        {
+            int n = m_deck.draw(level);
+            if(n >= 0)
+                questions[found++] = m_levels[level][n];
+        }
+        return found;
+    }
+
+    /** Find a question by its id.
+     * @param id Unique question id.
+     * @return Question object or null if there is no question with this id. */
+    public QuizQuestion getQuestionByID(int id)
+    {
+        if(m_changedMap != null)
+        {
+            int index = m_changedMap.get(id);
+            if(index >= 0)
+                return m_changed[index];
+        }
+        int index = m_baseIDs.get(id);
+        if(index < 0)
+            return null;
+        return m_base[index];
+    }
+
+    /** How many bytes of the delta file are contained in this index.
+     * @return Byte offset in the delta file, 0 if no delta has been applied. */
+    public long getDeltaOffset()
+    {
+        return m_deltaOffset;
+    }
+
+    /** Create a new index with changes from a delta file.
+     * The question objects are shared with this index, nothing is parsed.
+     * Only the levels with changed questions are copied, the other levels
+     * and their decks are shared with this index.
+     * @param changes Question id -> new question (added or updated), or null if the question is retired.
+     * @param deltaOffset Delta file offset after the changes.
+     * @return New index. This index is not changed. */
+    public QuizDBIndex applyDelta(Map<Integer, QuizQuestion> changes, long deltaOffset)
+    {
+        int maxDifficulty = getMaxDifficulty();
+        QuizIntMap changedNow = new QuizIntMap(changes.size());
+        boolean[] touched = new boolean[maxDifficulty+1];
+        for(Map.Entry<Integer, QuizQuestion> change : changes.entrySet())
+        {
+            int id = change.getKey().intValue();
+            changedNow.put(id, 0);
+            touch(touched, getQuestionByID(id));
+            touch(touched, change.getValue());
+        }
+
+        // copy the touched levels: unchanged questions keep their position,
+        // new and updated questions at the end
+        QuizQuestion[][] levels = m_levels.clone();
+        for(int level=1;level<=maxDifficulty;level++)
+        {
+            if(!touched[level])
+                continue;
+            QuizQuestion[] old = m_levels[level];
+            QuizQuestion[] questions = new QuizQuestion[old.length + changes.size()];
+            int count = 0;
+            for(int i=0;i<old.length;i++)
+            {
+                if(changedNow.get(old[i].getID()) < 0)
+                    questions[count++] = old[i];
+            }
+            for(QuizQuestion q : changes.values())
+            {
+                if(q != null && q.getDifficulty() == level)
+                    questions[count++] = q;
+            }
+            levels[level] = Arrays.copyOf(questions, count);
+        }
+
+        // all changes since the file has been loaded, later changes win
+        int[] changedIDs = new int[m_changedIDs.length + changes.size()];
+        QuizQuestion[] changed = new QuizQuestion[changedIDs.length];
+        int count = 0;
+        for(int i=0;i<m_changedIDs.length;i++)
+        {
+            if(changedNow.get(m_changedIDs[i]) >= 0)
+                continue;
+            changedIDs[count] = m_changedIDs[i];
+            changed[count++] = m_changed[i];
+        }
+        for(Map.Entry<Integer, QuizQuestion> change : changes.entrySet())
+        {
+            changedIDs[count] = change.getKey().intValue();
+            changed[count++] = change.getValue();
+        }
+        QuizIntMap changedMap = new QuizIntMap(count);
+        for(int i=0;i<count;i++)
+            changedMap.put(changedIDs[i], i);
+
+        QuizDeck deck = new QuizDeck(getLevelSizes(levels), m_deck, touched);
+        return new QuizDBIndex(this, levels,
+                               Arrays.copyOf(changedIDs, count), Arrays.copyOf(changed, count),
+                               changedMap, deltaOffset, deck);
+    }
+
+    /** Create a new version of this index with another delta file offset,
+     * e.g. after the delta file has been compacted into the database file.
+     * Questions and decks are shared with this index.
+     * @param deltaOffset New delta file offset.
+     * @return New index. */
+    public QuizDBIndex withDeltaOffset(long deltaOffset)
+    {
+        return new QuizDBIndex(this, m_levels, m_changedIDs, m_changed, m_changedMap, deltaOffset, m_deck);
+    }
+
+    /** Create a new version of this index that continues the decks of
+     * another version of the database (e.g. before a reload) for the
+     * levels with the same questions in the same order.
+     * @param old Old version of the database.
+     * @return New index with the same questions as this index. */
+    public QuizDBIndex keepDecks(QuizDBIndex old)
+    {
+        boolean[] changed = new boolean[m_levels.length];
+        for(int level=1;level<m_levels.length;level++)
+            changed[level] = level >= old.m_levels.length || !sameIDs(m_levels[level], old.m_levels[level]);
+        QuizDeck deck = new QuizDeck(getLevelSizes(m_levels), old.m_deck, changed);
+        return new QuizDBIndex(this, m_levels, m_changedIDs, m_changed, m_changedMap, m_deltaOffset, deck);
+    }
+
+    /** Compare the question ids of two levels.
+     * @param a Questions of a level.
+     * @param b Questions of a level.
+     * @return true if both have the same ids in the same order. */
+    private static boolean sameIDs(QuizQuestion[] a, QuizQuestion[] b)
+    {
+        if(a.length != b.length)
+            return false;
+        for(int i=0;i<a.length;i++)
+        {
+            if(a[i].getID() != b[i].getID())
+                return false;
+        }
+        return true;
+    }
+
+    /** Mark the level of a question.
+     * @param touched Flag per level.
+     * @param q Question or null. */
+    private static void touch(boolean[] touched, QuizQuestion q)
+    {
+        if(q != null && q.getDifficulty() >= 1 && q.getDifficulty() < touched.length)
+            touched[q.getDifficulty()] = true;
+    }
+
+    /** Number of questions of each level.
+     * @param levels Questions of each level.
+     * @return Sizes (index = difficulty level). */
+    private static int[] getLevelSizes(QuizQuestion[][] levels)
+    {
+        int[] sizes = new int[levels.length];
+        for(int level=0;level<levels.length;level++)
+            sizes[level] = levels[level].length;
+        return sizes;
+    }
+
+    /** Sum of an array.
+     * @param values Values.
+     * @return Sum. */
+    private static int sum(int[] values)
+    {
+        int sum = 0;
+        for(int i=0;i<values.length;i++)
+            sum += values[i];
+        return sum;
+    }
+}
@@ -0,0 +1,270 @@
+package javaquiz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Question database backend for very large databases.
+ *
+ * The binary database file (see QuizDBBinary) is memory-mapped from the
+ * filesystem and nothing but the small level table is copied to the heap.
+ * The returned questions are flyweights: they only know their record
+ * position and decode the question and answer strings from the mapped
+ * file when the view asks for them. So the heap footprint does not grow
+ * with the database size, the operating system pages the file in and
+ * out as needed.
+ *
+ * The records of each level are sorted by id (the converter does that),
+ * so an id lookup is a binary search per level.
+ * A single mapping is limited to 2 GB.
+ */
+public class QuizDBMapped
+{
+    /** The mapped database file. Only absolute get methods are used on
+     *  this buffer, so it can be shared by all threads. */
+    private final ByteBuffer m_buffer;
+    /** First record of each level (see QuizDBBinary), the last entry is the record count. */
+    private final int[] m_levels;
+    /** Byte offset of the first record. */
+    private final int m_recordStart;
+    /** Byte offset of the string table. */
+    private final int m_stringStart;
+    /** Size of the string table in bytes. */
+    private final int m_stringSize;
+    /** File name for the log. */
+    private final String m_name;
+    /** Random generator for the question selection (Random is thread safe). */
+    private final Random m_random = new Random();
+
+    /** Map a binary database file.
+     * @param file Binary database file (see QuizDBBinary).
+     * @throws IOException if the file can't be mapped or has an invalid format. */
+    public QuizDBMapped(File file) throws IOException
+    {
+        m_name = file.getPath();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            if(channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Database too large to map: " + m_name);
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            m_buffer = buffer;
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        if(m_buffer.capacity() < QuizDBBinary.HEADER_SIZE ||
+           m_buffer.getInt(0) != QuizDBBinary.MAGIC)
+            throw new IOException("Not a binary quiz database: " + m_name);
+        if(m_buffer.getShort(4) != QuizDBBinary.VERSION)
+            throw new IOException("Unsupported quiz database version: " + m_name);
+        int count = m_buffer.getInt(8);
+        int maxDifficulty = m_buffer.getInt(12);
+        int stringTableSize = m_buffer.getInt(16);
+        long recordStart = QuizDBBinary.HEADER_SIZE + 4L*(maxDifficulty+2L);
+        long stringStart = recordStart + (long)count*QuizDBBinary.RECORD_SIZE;
+        if(count < 0 || maxDifficulty < 0 || stringTableSize < 0 ||
+           stringStart + stringTableSize > m_buffer.capacity())
+            throw new IOException("Invalid quiz database header: " + m_name);
+
+        // the level table must be monotonic from 0 to count,
+        // otherwise a draw could get a negative range or a record outside the file
+        m_levels = new int[maxDifficulty+2];
+        for(int i=0;i<m_levels.length;i++)
+        {
+            m_levels[i] = m_buffer.getInt(QuizDBBinary.HEADER_SIZE + 4*i);
+            if(m_levels[i] < (i == 0 ? 0 : m_levels[i-1]) || m_levels[i] > count)
+                throw new IOException("Invalid level table in quiz database: " + m_name);
+        }
+        if(m_levels[0] != 0 || m_levels[m_levels.length-1] != count)
+            throw new IOException("Invalid level table in quiz database: " + m_name);
+        m_recordStart = (int)recordStart;
+        m_stringStart = (int)stringStart;
+        m_stringSize = stringTableSize;
+
+        Quiz.Print("Mapped quiz database: " + m_name + " (" + count + " questions)");
+    }
+
+    /** How many questions are in the database.
+     * @return Question count. */
+    public int getQuestionCount()
+    {
+        return m_levels[m_levels.length-1];
+    }
+
+    /** How many questions are available for a difficulty level.
+     * @param difficulty Difficulty level (1..max).
+     * @return Question count, 0 if the level is out of range. */
+    public int getQuestionCount(int difficulty)
+    {
+        if(difficulty < 0 || difficulty >= m_levels.length-1)
+            return 0;
+        return m_levels[difficulty+1] - m_levels[difficulty];
+    }
+
+    /** Draws a random set of questions, one question per difficulty level.
+     * @return Array of questions. Array is empty if the database is empty. */
+    public QuizQuestion[] getRandomQuestions()
+    {
+        int maxQuestions = QuizDB.getMaxDifficulty();
+        QuizQuestion[] questions = new QuizQuestion[maxQuestions];
+        int questionsFound = 0;
+
+        for(int i=1;i<=maxQuestions;i++) // foreach difficulty level
+        {
+            int questionsInThisLevel = getQuestionCount(i);
+            if(questionsInThisLevel == 0)
+                continue;
+            int record = m_levels[i] + m_random.nextInt(questionsInThisLevel);
+            questions[questionsFound++] = new MappedQuestion(record);
+        }
+
+        if(questionsFound < questions.length) // some levels are empty
+            questions = Arrays.copyOf(questions, questionsFound);
+        return questions;
+    }
+
+    /** Draws one random question of a difficulty level.
+     * @param difficulty Difficulty level (1..max).
+     * @return Question object or null if there is no question for this level. */
+    public QuizQuestion getRandomQuestion(int difficulty)
+    {
+        int questionsInThisLevel = getQuestionCount(difficulty);
+        if(questionsInThisLevel == 0)
+            return null;
+        return new MappedQuestion(m_levels[difficulty] + m_random.nextInt(questionsInThisLevel));
+    }
+
+    /** Loads a specific set of questions (e.g. the same questions in another language).
+     * @param ids Array of question ids that we should load (the array is not modified).
+     * @return Array of questions, sorted by difficulty. */
+    public QuizQuestion[] getSpecificQuestions(int[] ids)
+    {
+        QuizQuestion[] qarray = new QuizQuestion[ids.length];
+        int questionsFound = 0;
+
+        for(int i=0;i<ids.length;i++)
+        {
+            int record = findRecord(ids[i]);
+            if(record >= 0)
+                qarray[questionsFound++] = new MappedQuestion(record);
+        }
+        if(questionsFound < qarray.length) // some ids are unknown
+            qarray = Arrays.copyOf(qarray, questionsFound);
+
+        Arrays.sort(qarray, new QuizDB.QuestionComparator());
+        return qarray;
+    }
+
+    /** Find the record of a question id.
+     * The records of a level are sorted by id, so we do a binary search per level.
+     * @param id Question id.
+     * @return Record index or -1 if the id is unknown. */
+    private int findRecord(int id)
+    {
+        for(int level=0;level<m_levels.length-1;level++)
+        {
+            int low = m_levels[level];
+            int high = m_levels[level+1]-1;
+            while(low <= high)
+            {
+                int mid = (low + high) >>> 1;
+                int midID = getRecordInt(mid, 0);
+                if(midID < id)
+                    low = mid+1;
+                else if(midID > id)
+                    high = mid-1;
+                else
+                    return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Read an int field of a record.
+     * @param record Record index.
+     * @param offset Byte offset within the record.
+     * @return Value. */
+    private int getRecordInt(int record, int offset)
+    {
+        return m_buffer.getInt(m_recordStart + record*QuizDBBinary.RECORD_SIZE + offset);
+    }
+
+    /** Read a byte field of a record.
+     * @param record Record index.
+     * @param offset Byte offset within the record.
+     * @return Value. */
+    private int getRecordByte(int record, int offset)
+    {
+        return m_buffer.get(m_recordStart + record*QuizDBBinary.RECORD_SIZE + offset);
+    }
+
+    /** Decode a string of a record from the mapped file.
+     * @param record Record index.
+     * @param index String index (0 = question, 1..4 = answers).
+     * @return Decoded string, "" if the record points outside the string table. */
+    private String getRecordString(int record, int index)
+    {
+        int start = getRecordInt(record, 8 + 4*index);
+        int end = getRecordInt(record, 12 + 4*index);
+        if(start < 0 || start > end || end > m_stringSize)
+        {
+            Quiz.Print("Invalid string offsets in quiz database: " + m_name + " (record " + record + ")");
+            return "";
+        }
+        // absolute reads, the shared buffer has no position to protect
+        byte[] utf8 = new byte[end-start];
+        int offset = m_stringStart + start;
+        for(int i=0;i<utf8.length;i++)
+            utf8[i] = m_buffer.get(offset + i);
+        return new String(utf8, QuizDBBinary.UTF8);
+    }
+
+    /** Flyweight question: only the record index is stored on the heap,
+     *  the strings are decoded on demand. */
+    private class MappedQuestion extends QuizQuestion
+    {
+        /** Record index in the mapped file. */
+        private final int m_record;
+
+        /** Create a flyweight for a record.
+         * @param record Record index. */
+        MappedQuestion(int record)
+        {
+            super(getRecordInt(record, 0), getRecordByte(record, 4), getRecordByte(record, 5));
+            m_record = record;
+        }
+
+        public String getQuestion()
+        {
+            return getRecordString(m_record, 0);
+        }
+
+        public String getAnswer(int index)
+        {
+            if(index < QuizDBBinary.STRINGS-1 && index >= 0)
+            {
+                return getRecordString(m_record, index+1);
+            }
+            else
+            {
+                assert false;
+                return "";
+            }
+        }
+
+        public int getAnswerCount()
+        {
+            return QuizDBBinary.STRINGS-1;
+        }
+    }
+}
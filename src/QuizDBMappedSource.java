@@ -0,0 +1,77 @@
+package javaquiz;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Question source for memory-mapped binary databases (see QuizDBMapped).
+ *
+ * The databases are binary files in a directory, with the same names
+ * as in the jar (e.g. "en.qdb", converted with QuizDBBinary). Each file
+ * is mapped when it is used for the first time and stays mapped.
+ *
+ * Usage:
+ *
+ *      QuizModel model = new QuizModel(new QuizDBMappedSource(new File("db")));
+ */
+public class QuizDBMappedSource implements QuizQuestionSource
+{
+    /** Directory with the binary databases. */
+    private final File m_directory;
+    /** Mapped databases (file name -> database). */
+    private final ConcurrentHashMap<String, QuizDBMapped> m_databases =
+        new ConcurrentHashMap<String, QuizDBMapped>();
+
+    /** Constructor.
+     * @param directory Directory with the binary databases. */
+    public QuizDBMappedSource(File directory)
+    {
+        m_directory = directory;
+    }
+
+    public QuizQuestion[] getRandomQuestions(String database)
+    {
+        QuizDBMapped db = getDatabase(database);
+        return (db == null) ? new QuizQuestion[0] : db.getRandomQuestions();
+    }
+
+    public QuizQuestion getRandomQuestion(String database, int difficulty)
+    {
+        QuizDBMapped db = getDatabase(database);
+        return (db == null) ? null : db.getRandomQuestion(difficulty);
+    }
+
+    public QuizQuestion[] getSpecificQuestions(String database, int[] ids)
+    {
+        QuizDBMapped db = getDatabase(database);
+        return (db == null) ? new QuizQuestion[0] : db.getSpecificQuestions(ids);
+    }
+
+    public int getQuestionCount(String database, int difficulty)
+    {
+        QuizDBMapped db = getDatabase(database);
+        return (db == null) ? 0 : db.getQuestionCount(difficulty);
+    }
+
+    /** Get a mapped database, map it if necessary.
+     * @param database Database file name.
+     * @return Mapped database or null if the file can't be mapped. */
+    private QuizDBMapped getDatabase(String database)
+    {
+        QuizDBMapped db = m_databases.get(database);
+        if(db != null)
+            return db;
+        try
+        {
+            // two threads might map the same file, only one mapping is kept
+            db = new QuizDBMapped(new File(m_directory, database));
+            QuizDBMapped other = m_databases.putIfAbsent(database, db);
+            return (other != null) ? other : db;
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("Failed to map quiz database: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package javaquiz;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/** Parses a large text question database on several threads.
+ *
+ * The file content is split at line boundaries into chunks. The lines
+ * of each chunk are counted first, so every chunk knows the line number
+ * of its first line and the question ids are the same as with the
+ * sequential parser. Then the chunks are parsed in parallel and the
+ * results are merged in file order, so the result is identical to the
+ * sequential QuizDB loop.
+ *
+ * The chunks share the answer pool of the load (see QuizStringPool),
+ * its segments have their own locks, so the threads rarely wait for
+ * each other.
+ *
+ * Use QuizDB.setLoadMode(QuizDB.LoadMode.PARALLEL) to enable this loader.
+ */
+public class QuizDBParallelLoader
+{
+    /** Don't create chunks smaller than this (in bytes), small files are parsed on one thread. */
+    private final static int MIN_CHUNK_SIZE = 1 << 20;
+    /** Chunks per thread, so a slow chunk doesn't keep the other threads waiting. */
+    private final static int CHUNKS_PER_THREAD = 4;
+
+    /** Only static methods. */
+    private QuizDBParallelLoader()
+    {
+    }
+
+    /** Read a stream completely into memory.
+     * @param in Input stream (not closed).
+     * @return The content.
+     * @throws IOException if the stream can't be read. */
+    static byte[] readFully(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+        byte[] buffer = new byte[1 << 16];
+        int n;
+        while((n = in.read(buffer)) >= 0)
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    /** Parse a text database on several threads.
+     * @param in Text database (UTF-8, not closed).
+     * @param maxDifficulty Highest valid difficulty level.
+     * @param pool Pool for the answers (see QuizStringPool), null for own strings.
+     * @return All valid questions in file order.
+     * @throws IOException if the stream can't be read or a chunk fails. */
+    public static QuizQuestion[] load(InputStream in, final int maxDifficulty, final QuizStringPool pool)
+        throws IOException
+    {
+        final byte[] data = readFully(in);
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunks = Math.max(1, Math.min(threads*CHUNKS_PER_THREAD, data.length/MIN_CHUNK_SIZE));
+
+        // split at line boundaries (after a '\n'), a "\r\n" is never split.
+        int[] bounds = new int[chunks+1];
+        bounds[chunks] = data.length;
+        for(int i=1;i<chunks;i++)
+        {
+            int pos = Math.max(bounds[i-1], (int)((long)data.length*i/chunks));
+            while(pos < data.length && data[pos-1] != '\n')
+                pos++;
+            bounds[i] = pos;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, chunks), new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "QuizDB loader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try
+        {
+            List<Future<QuizQuestion[]>> results = new ArrayList<Future<QuizQuestion[]>>(chunks);
+            int firstLine = 1;
+            for(int i=0;i<chunks;i++)
+            {
+                final int start = bounds[i];
+                final int end = bounds[i+1];
+                final int line = firstLine;
+                results.add(executor.submit(new Callable<QuizQuestion[]>() {
+                    public QuizQuestion[] call() throws IOException
+                    {
+                        return parseChunk(data, start, end, line, maxDifficulty, pool);
+                    }
+                }));
+                firstLine += countLines(data, start, end);
+            }
+
+            // merge in file order
+            ArrayList<QuizQuestion> all = new ArrayList<QuizQuestion>();
+            for(Future<QuizQuestion[]> result : results)
+            {
+                QuizQuestion[] questions = result.get();
+                all.ensureCapacity(all.size() + questions.length);
+                for(int i=0;i<questions.length;i++)
+                    all.add(questions[i]);
+            }
+            return all.toArray(new QuizQuestion[all.size()]);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading questions.");
+        }
+        catch(ExecutionException e)
+        {
+            throw new IOException("Failed to parse quiz database chunk: " + e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Parse the lines of one chunk.
+     * @param data File content.
+     * @param start First byte of the chunk.
+     * @param end End of the chunk (exclusive).
+     * @param firstLine Line number of the first line of the chunk.
+     * @param maxDifficulty Highest valid difficulty level.
+     * @param pool Answer pool of the load or null.
+     * @return Valid questions of this chunk.
+     * @throws IOException if parsing fails. */
+    private static QuizQuestion[] parseChunk(byte[] data, int start, int end, int firstLine, int maxDifficulty,
+                                             QuizStringPool pool)
+        throws IOException
+    {
+        QuizDBParser parser = new QuizDBParser(
+                new InputStreamReader(new ByteArrayInputStream(data, start, end-start), "UTF-8"),
+                firstLine);
+        ArrayList<QuizQuestion> questions = new ArrayList<QuizQuestion>();
+        while(parser.nextLine())
+        {
+            QuizQuestion q = QuizDB.parseQuestion(parser, maxDifficulty, pool);
+            if(q != null)
+                questions.add(q);
+        }
+        return questions.toArray(new QuizQuestion[questions.size()]);
+    }
+
+    /** Count the lines of a chunk the same way QuizDBParser does
+     * ("\n", "\r" and "\r\n" end a line).
+     * @param data File content.
+     * @param start First byte of the chunk.
+     * @param end End of the chunk (exclusive).
+     * @return Number of lines. */
+    private static int countLines(byte[] data, int start, int end)
+    {
+        int lines = 0;
+        for(int i=start;i<end;i++)
+        {
+            byte b = data[i];
+            if(b == '\n')
+                lines++;
+            else if(b == '\r' && (i+1 >= data.length || data[i+1] != '\n'))
+                lines++;
+        }
+        // a last line without line break
+        if(end > start && data[end-1] != '\n' && data[end-1] != '\r')
+            lines++;
+        return lines;
+    }
+}
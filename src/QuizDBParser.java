@@ -0,0 +1,332 @@
+package javaquiz;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/** Streaming tokenizer for the text question database (see QuizDB).
+ *
+ * The parser reads the input in large blocks and splits each line into
+ * fields in a single pass over the characters. The fields are stored in
+ * one reusable char buffer, so reading a line allocates nothing; only
+ * getField() creates a String, and getFieldInt() parses numbers in place.
+ *
+ * Fields are separated by SEPARATOR. Whitespace around a field is
+ * ignored. A field can be put in double quotes to keep a separator or
+ * whitespace in the text ("" inside quotes is a quote character), and
+ * a backslash escapes a separator, a quote or a backslash.
+ *
+ * Every physical line counts as a line, so getLineNumber() matches the
+ * line numbers of the file (QuizDB uses them as question ids).
+ */
+public class QuizDBParser
+{
+    /** Field separator. */
+    public final static char SEPARATOR = ';';
+    /** Quote character. */
+    public final static char QUOTE = '"';
+    /** Escape character. */
+    public final static char ESCAPE = '\\';
+    /** Size of the read buffer in chars. */
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    /** Input. */
+    private final Reader m_reader;
+    /** Read buffer. */
+    private final char[] m_buf = new char[BUFFER_SIZE];
+    /** Current read position in m_buf. */
+    private int m_pos = 0;
+    /** Number of valid chars in m_buf. */
+    private int m_limit = 0;
+    /** Set, if the last line ended with a '\r', so a following '\n' belongs to it. */
+    private boolean m_skipLF = false;
+    /** Set, if the end of the input is reached. */
+    private boolean m_eof = false;
+
+    /** Field content of the current line (without quotes and escapes). */
+    private char[] m_chars = new char[256];
+    /** Start of each field in m_chars. */
+    private int[] m_fieldStart = new int[16];
+    /** End of each field in m_chars (exclusive, trailing whitespace removed). */
+    private int[] m_fieldEnd = new int[16];
+    /** Number of fields in the current line. */
+    private int m_fieldCount = 0;
+    /** Current line number (1 = first line). */
+    private int m_lineNr = 0;
+
+    /** Create a parser.
+     * @param reader Input, e.g. an InputStreamReader with UTF-8 encoding. The parser does its own buffering. */
+    public QuizDBParser(Reader reader)
+    {
+        m_reader = reader;
+    }
+
+    /** Create a parser that starts counting at a given line number
+     * (used if the input is a part of a larger file).
+     * @param reader Input.
+     * @param firstLineNr Line number of the first line of the input. */
+    public QuizDBParser(Reader reader, int firstLineNr)
+    {
+        m_reader = reader;
+        m_lineNr = firstLineNr-1;
+    }
+
+    /** Read and split the next line.
+     * @return false if there are no more lines.
+     * @throws IOException if the input can't be read. */
+    public boolean nextLine() throws IOException
+    {
+        int len = 0;          // chars in m_chars
+        int fields = 0;       // finished fields
+        int fieldStart = 0;   // start of the current field in m_chars
+        int significant = 0;  // end of the last char that is not whitespace
+        boolean inQuotes = false;
+        boolean content = false; // has the current field any content so far?
+        boolean anyChar = false; // has this line any char at all?
+
+        while(true)
+        {
+            if(m_pos >= m_limit && !fill())
+            {
+                if(!anyChar)
+                    return false; // end of input, no more lines
+                break; // last line without line break
+            }
+
+            char c = m_buf[m_pos++];
+            if(m_skipLF)
+            {
+                m_skipLF = false;
+                if(c == '\n')
+                    continue; // second half of a "\r\n"
+            }
+            anyChar = true;
+
+            if(c == '\n' || c == '\r')
+            {
+                m_skipLF = (c == '\r');
+                break; // end of line (a quote can't span lines)
+            }
+
+            if(len+2 > m_chars.length)
+                m_chars = grow(m_chars);
+
+            if(inQuotes)
+            {
+                if(c == QUOTE)
+                {
+                    if(peek() == QUOTE) // "" is a quote character
+                    {
+                        m_pos++;
+                        m_chars[len++] = QUOTE;
+                    }
+                    else
+                    {
+                        inQuotes = false;
+                    }
+                }
+                else
+                {
+                    m_chars[len++] = c;
+                }
+                significant = len;
+            }
+            else if(c == SEPARATOR)
+            {
+                fields = endField(fields, fieldStart, significant);
+                fieldStart = len;
+                significant = len;
+                content = false;
+            }
+            else if(c == QUOTE && !content)
+            {
+                inQuotes = true;
+                content = true;
+            }
+            else if(c == ESCAPE)
+            {
+                int next = peek();
+                if(next == SEPARATOR || next == QUOTE || next == ESCAPE)
+                {
+                    m_pos++;
+                    c = (char)next;
+                }
+                m_chars[len++] = c;
+                significant = len;
+                content = true;
+            }
+            else if(c <= ' ') // whitespace (same rule as String.trim)
+            {
+                if(content) // leading whitespace is skipped
+                    m_chars[len++] = c;
+            }
+            else
+            {
+                m_chars[len++] = c;
+                significant = len;
+                content = true;
+            }
+        }
+
+        fields = endField(fields, fieldStart, significant);
+        // like String.split: trailing empty fields are dropped
+        while(fields > 0 && m_fieldEnd[fields-1] == m_fieldStart[fields-1])
+            fields--;
+        m_fieldCount = fields;
+        m_lineNr++;
+        return true;
+    }
+
+    /** Current line number.
+     * @return Line number of the line read by the last nextLine() call (1 = first line). */
+    public int getLineNumber()
+    {
+        return m_lineNr;
+    }
+
+    /** Number of fields of the current line.
+     * @return Field count (0 for an empty line). */
+    public int getFieldCount()
+    {
+        return m_fieldCount;
+    }
+
+    /** Get a field as string (without surrounding whitespace).
+     * @param i Field index (0..getFieldCount()-1).
+     * @return Field content. */
+    public String getField(int i)
+    {
+        return new String(m_chars, m_fieldStart[i], m_fieldEnd[i]-m_fieldStart[i]);
+    }
+
+    /** Get a field as string from an answer pool (see QuizStringPool).
+     * No String is created if the pool already has this text.
+     * @param i Field index (0..getFieldCount()-1).
+     * @param pool Pool of the load, null for a new String.
+     * @return Field content. */
+    public String getFieldPooled(int i, QuizStringPool pool)
+    {
+        if(pool == null)
+            return getField(i);
+        return pool.intern(m_chars, m_fieldStart[i], m_fieldEnd[i]-m_fieldStart[i]);
+    }
+
+    /** 64 bit hash of a field (FNV-1a, ignoring upper/lower case), without creating a string.
+     * @param i Field index (0..getFieldCount()-1).
+     * @return Hash value. */
+    public long getFieldHash(int i)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for(int pos=m_fieldStart[i];pos<m_fieldEnd[i];pos++)
+        {
+            hash ^= Character.toLowerCase(m_chars[pos]);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** Length of a field (without surrounding whitespace).
+     * @param i Field index (0..getFieldCount()-1).
+     * @return Length in chars. */
+    public int getFieldLength(int i)
+    {
+        return m_fieldEnd[i]-m_fieldStart[i];
+    }
+
+    /** Parse a field as decimal integer, without creating a string.
+     * @param i Field index (0..getFieldCount()-1).
+     * @return Integer value.
+     * @throws NumberFormatException if the field is not a valid integer. */
+    public int getFieldInt(int i)
+    {
+        int pos = m_fieldStart[i];
+        int end = m_fieldEnd[i];
+        boolean negative = false;
+        if(pos < end && (m_chars[pos] == '-' || m_chars[pos] == '+'))
+        {
+            negative = (m_chars[pos] == '-');
+            pos++;
+        }
+        if(pos >= end || end-pos > 10)
+            throw new NumberFormatException("Invalid number in line " + m_lineNr);
+
+        long value = 0;
+        for(;pos<end;pos++)
+        {
+            int digit = m_chars[pos] - '0';
+            if(digit < 0 || digit > 9)
+                throw new NumberFormatException("Invalid number in line " + m_lineNr);
+            value = value*10 + digit;
+        }
+        if(negative)
+            value = -value;
+        if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw new NumberFormatException("Number out of range in line " + m_lineNr);
+        return (int)value;
+    }
+
+    /** Finish a field.
+     * @param fields Number of finished fields so far.
+     * @param start Start of the field in m_chars.
+     * @param end End of the field in m_chars.
+     * @return New number of finished fields. */
+    private int endField(int fields, int start, int end)
+    {
+        if(fields >= m_fieldStart.length)
+        {
+            m_fieldStart = grow(m_fieldStart);
+            m_fieldEnd = grow(m_fieldEnd);
+        }
+        m_fieldStart[fields] = start;
+        m_fieldEnd[fields] = Math.max(start, end);
+        return fields+1;
+    }
+
+    /** Look at the next char without consuming it.
+     * @return Next char or -1 at the end of the input.
+     * @throws IOException if the input can't be read. */
+    private int peek() throws IOException
+    {
+        if(m_pos >= m_limit && !fill())
+            return -1;
+        return m_buf[m_pos];
+    }
+
+    /** Read the next block from the input.
+     * @return false at the end of the input.
+     * @throws IOException if the input can't be read. */
+    private boolean fill() throws IOException
+    {
+        if(m_eof)
+            return false;
+        int n;
+        do
+        {
+            n = m_reader.read(m_buf, 0, m_buf.length);
+        } while(n == 0);
+        if(n < 0)
+        {
+            m_eof = true;
+            return false;
+        }
+        m_pos = 0;
+        m_limit = n;
+        return true;
+    }
+
+    /** Double the size of an array.
+     * @param a Array.
+     * @return Bigger copy. */
+    private static char[] grow(char[] a)
+    {
+        return Arrays.copyOf(a, a.length*2);
+    }
+
+    /** Double the size of an array.
+     * @param a Array.
+     * @return Bigger copy. */
+    private static int[] grow(int[] a)
+    {
+        return Arrays.copyOf(a, a.length*2);
+    }
+}
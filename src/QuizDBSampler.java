@@ -0,0 +1,200 @@
+package javaquiz;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Draws questions from a text database without loading the database.
+ *
+ * The file is read once per draw and only the selected questions are
+ * kept: for each difficulty level we do a reservoir sampling with a
+ * reservoir of size one, i.e. the n-th valid question of a level replaces
+ * the current candidate with probability 1/n. At the end every question
+ * of a level has been selected with the same probability. Memory use is
+ * O(levels), so the database can be much larger than the heap. The
+ * drawn questions don't use an answer pool (see QuizStringPool), they
+ * are dropped after the game.
+ *
+ * Invalid lines are only logged by the first complete pass over a file,
+ * not again for every draw.
+ *
+ * This is used by QuizDB in the LoadMode.STREAMING mode.
+ */
+public class QuizDBSampler
+{
+    /** Names of the files whose invalid lines have been logged. */
+    private final static Set<String> m_checkedFiles =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Only static methods. */
+    private QuizDBSampler()
+    {
+    }
+
+    /** Draw one random question per difficulty level.
+     * @param fileName Quiz database file name (in the database directory or in the jar).
+     * @param random Random generator.
+     * @return Array of questions, empty if something fails. Returns null if the database is not a text database. */
+    public static QuizQuestion[] getRandomQuestions(String fileName, Random random)
+    {
+        return draw(fileName, random, 0);
+    }
+
+    /** Draw one random question of a difficulty level.
+     * @param fileName Quiz database file name (in the database directory or in the jar).
+     * @param difficulty Difficulty level (1..max).
+     * @param random Random generator.
+     * @return Array with the question, empty if something fails or there is no question for this level.
+     *         Returns null if the database is not a text database. */
+    public static QuizQuestion[] getRandomQuestion(String fileName, int difficulty, Random random)
+    {
+        return draw(fileName, random, difficulty);
+    }
+
+    /** Reservoir sampling over the whole file.
+     * @param fileName Quiz database file name.
+     * @param random Random generator.
+     * @param onlyLevel Only draw a question for this level, 0 for all levels.
+     * @return Array of questions, empty if something fails. Returns null if the database is not a text database. */
+    private static QuizQuestion[] draw(String fileName, Random random, int onlyLevel)
+    {
+        int maxDifficulty = QuizDB.getMaxDifficulty();
+        QuizQuestion[] selected = new QuizQuestion[maxDifficulty+1];
+        int[] seen = new int[maxDifficulty+1]; // valid questions per level so far
+
+        InputStream stream = null;
+        try
+        {
+            stream = QuizDB.openDatabase(fileName);
+            if(stream == null)
+            {
+                Quiz.Print("QuizDB: Failed to read from " + fileName);
+                return new QuizQuestion[0];
+            }
+            QuizDBParser parser = openParser(stream);
+            if(parser == null)
+                return null;
+
+            boolean log = !m_checkedFiles.contains(fileName);
+            while(parser.nextLine())
+            {
+                int difficulty = QuizDB.checkQuestion(parser, maxDifficulty, log);
+                if(difficulty == 0 || (onlyLevel != 0 && difficulty != onlyLevel))
+                    continue;
+                // keep this one with probability 1/seen.
+                // strings are only created for the kept questions.
+                seen[difficulty]++;
+                if(random.nextInt(seen[difficulty]) == 0)
+                    selected[difficulty] = QuizDB.createQuestion(parser, difficulty, null);
+            }
+            m_checkedFiles.add(fileName); // all lines have been checked
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("QuizDB: Failed to read from " + fileName + ": " + e.getLocalizedMessage());
+            return new QuizQuestion[0];
+        }
+        finally
+        {
+            close(stream);
+        }
+
+        // one question per level, in the order of the levels
+        return compact(selected);
+    }
+
+    /** Load a specific set of questions, reading the database once.
+     * @param fileName Quiz database file name (in the database directory or in the jar).
+     * @param ids Question ids (the array is not modified).
+     * @return Array of questions, sorted by difficulty. Empty if something fails.
+     *         Returns null if the database is not a text database. */
+    public static QuizQuestion[] getSpecificQuestions(String fileName, int[] ids)
+    {
+        int maxDifficulty = QuizDB.getMaxDifficulty();
+        int[] sortedIDs = ids.clone();
+        Arrays.sort(sortedIDs);
+        QuizQuestion[] found = new QuizQuestion[ids.length];
+        int questionsFound = 0;
+
+        InputStream stream = null;
+        try
+        {
+            stream = QuizDB.openDatabase(fileName);
+            if(stream == null)
+            {
+                Quiz.Print("QuizDB: Failed to read from " + fileName);
+                return new QuizQuestion[0];
+            }
+            QuizDBParser parser = openParser(stream);
+            if(parser == null)
+                return null;
+
+            while(questionsFound < found.length && parser.nextLine())
+            {
+                // the line number is the id, so we know before checking the line
+                if(Arrays.binarySearch(sortedIDs, parser.getLineNumber()) < 0)
+                    continue;
+                int difficulty = QuizDB.checkQuestion(parser, maxDifficulty, !m_checkedFiles.contains(fileName));
+                if(difficulty != 0)
+                    found[questionsFound++] = QuizDB.createQuestion(parser, difficulty, null);
+            }
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("QuizDB: Failed to read from " + fileName + ": " + e.getLocalizedMessage());
+            return new QuizQuestion[0];
+        }
+        finally
+        {
+            close(stream);
+        }
+
+        found = Arrays.copyOf(found, questionsFound);
+        Arrays.sort(found, new QuizDB.QuestionComparator());
+        return found;
+    }
+
+    /** Create a parser for a text database.
+     * @param stream Database stream.
+     * @return Parser or null if the stream contains a binary database.
+     * @throws IOException if the stream can't be read. */
+    private static QuizDBParser openParser(InputStream stream) throws IOException
+    {
+        BufferedInputStream in = new BufferedInputStream(stream);
+        if(QuizDBBinary.isBinary(in))
+            return null;
+        return new QuizDBParser(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /** Remove the empty slots of a question array.
+     * @param questions Array with null entries.
+     * @return Array without null entries, same order. */
+    private static QuizQuestion[] compact(QuizQuestion[] questions)
+    {
+        int count = 0;
+        for(int i=0;i<questions.length;i++)
+        {
+            if(questions[i] != null)
+                questions[count++] = questions[i];
+        }
+        return Arrays.copyOf(questions, count);
+    }
+
+    /** Close a stream, ignore errors.
+     * @param stream Stream or null. */
+    private static void close(InputStream stream)
+    {
+        try{
+            if(stream != null)
+                stream.close();
+        } catch(IOException ioe) {
+            Quiz.Print("Failed to close stream.");
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package javaquiz;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Checks a text question database and writes a JSON report.
+ *
+ * The loader skips invalid lines with a short log message. The validator
+ * reads the whole database once with QuizDBParser (no question objects
+ * are created) and reports every problem with its line number:
+ *
+ *      field_count     not 7 fields
+ *      number          difficulty or correct answer is not a number
+ *      difficulty      difficulty outside 1..max
+ *      correct_answer  correct answer outside 0..3
+ *      empty_field     empty question or answer
+ *      duplicate       same question and answers (in any order, ignoring
+ *                      upper/lower case) as an earlier line
+ *      empty_level     a difficulty level without questions (line 0)
+ *
+ * Empty lines are ignored. Duplicates are found with a 64 bit hash of
+ * each question (a long and an int per table slot, half full at most), so a
+ * database with millions of lines is checked in seconds. The report
+ * also has the number of valid questions per level. At most
+ * MAX_PROBLEMS problems are listed, the counts per type are complete.
+ *
+ * Usage:
+ *
+ *      java -cp quiz.jar javaquiz.QuizDBValidator en.qdb [de.qdb ...] > report.json
+ *
+ * The exit code is 1 if a database has problems, so the validator can
+ * gate an import.
+ */
+public class QuizDBValidator
+{
+    /** Fields per line. */
+    private final static int FIELDS = 7;
+    /** Maximum number of listed problems per database. */
+    public final static int MAX_PROBLEMS = 1000;
+
+    /** Database name for the report. */
+    private final String m_name;
+    /** Highest valid difficulty level. */
+    private final int m_maxDifficulty;
+    /** Listed problems as JSON objects. */
+    private final StringBuilder m_problems = new StringBuilder();
+    /** Number of listed problems. */
+    private int m_listed = 0;
+    /** Problem count per type. */
+    private final Map<String, Integer> m_counts = new LinkedHashMap<String, Integer>();
+    /** Valid questions per level. */
+    private final int[] m_levels;
+    /** Number of lines. */
+    private int m_lines = 0;
+    /** Number of valid questions (without duplicates). */
+    private int m_questions = 0;
+    /** Question hashes seen so far (open addressing, 0 = empty slot). */
+    private long[] m_hashes = new long[1 << 12];
+    /** Line of each hash in m_hashes. */
+    private int[] m_hashLines = new int[1 << 12];
+    /** Number of hashes. */
+    private int m_hashCount = 0;
+
+    /** Create a validator for one database.
+     * @param name Database name for the report.
+     * @param maxDifficulty Highest valid difficulty level. */
+    public QuizDBValidator(String name, int maxDifficulty)
+    {
+        m_name = name;
+        m_maxDifficulty = maxDifficulty;
+        m_levels = new int[maxDifficulty+1];
+    }
+
+    /** Check a database.
+     * @param in Text database (UTF-8, not closed).
+     * @throws IOException if the stream can't be read. */
+    public void validate(InputStream in) throws IOException
+    {
+        QuizDBParser parser = new QuizDBParser(new InputStreamReader(in, "UTF-8"));
+        while(parser.nextLine())
+        {
+            m_lines = parser.getLineNumber();
+            checkLine(parser);
+        }
+        for(int level=1;level<=m_maxDifficulty;level++)
+        {
+            if(m_levels[level] == 0)
+                addProblem(0, "empty_level", "No questions for level " + level);
+        }
+    }
+
+    /** Check the current line of the parser.
+     * @param parser Parser, positioned at a line. */
+    private void checkLine(QuizDBParser parser)
+    {
+        int line = parser.getLineNumber();
+        int fields = parser.getFieldCount();
+        if(fields == 0)
+            return; // empty line
+        if(fields != FIELDS)
+        {
+            addProblem(line, "field_count", "Expected " + FIELDS + " fields, found " + fields);
+            return;
+        }
+
+        boolean valid = true;
+        int difficulty = 0;
+        try
+        {
+            difficulty = parser.getFieldInt(0);
+            if(difficulty < 1 || difficulty > m_maxDifficulty)
+            {
+                addProblem(line, "difficulty", "Difficulty " + difficulty + " is outside 1.." + m_maxDifficulty);
+                valid = false;
+            }
+        }
+        catch(NumberFormatException e)
+        {
+            addProblem(line, "number", "Difficulty is not a number: " + parser.getField(0));
+            valid = false;
+        }
+        try
+        {
+            int correctAnswer = parser.getFieldInt(6);
+            if(correctAnswer < 0 || correctAnswer > 3)
+            {
+                addProblem(line, "correct_answer", "Correct answer " + correctAnswer + " is outside 0..3");
+                valid = false;
+            }
+        }
+        catch(NumberFormatException e)
+        {
+            addProblem(line, "number", "Correct answer is not a number: " + parser.getField(6));
+            valid = false;
+        }
+        for(int i=1;i<FIELDS-1;i++)
+        {
+            if(parser.getFieldLength(i) == 0)
+            {
+                addProblem(line, "empty_field", (i == 1 ? "Question" : "Answer " + (i-2)) + " is empty");
+                valid = false;
+            }
+        }
+        if(!valid)
+            return;
+
+        // question and answers, the order of the answers doesn't matter
+        long hash = parser.getFieldHash(1);
+        long answers = 0;
+        for(int i=2;i<FIELDS-1;i++)
+            answers += mix(parser.getFieldHash(i));
+        hash = mix(hash ^ answers);
+        int first = addHash(hash, line);
+        if(first > 0)
+        {
+            addProblem(line, "duplicate", "Same question as line " + first);
+            return;
+        }
+
+        m_levels[difficulty]++;
+        m_questions++;
+    }
+
+    /** Remember a question hash.
+     * @param hash Question hash.
+     * @param line Line number.
+     * @return Line of an earlier question with the same hash, 0 if it is new. */
+    private int addHash(long hash, int line)
+    {
+        if(hash == 0)
+            hash = 1; // 0 marks an empty slot
+        int mask = m_hashes.length-1;
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+        while(m_hashes[slot] != 0)
+        {
+            if(m_hashes[slot] == hash)
+                return m_hashLines[slot];
+            slot = (slot+1) & mask;
+        }
+        m_hashes[slot] = hash;
+        m_hashLines[slot] = line;
+        if(2*(++m_hashCount) > m_hashes.length)
+            growHashes();
+        return 0;
+    }
+
+    /** Double the hash table. */
+    private void growHashes()
+    {
+        long[] oldHashes = m_hashes;
+        int[] oldLines = m_hashLines;
+        m_hashes = new long[oldHashes.length*2];
+        m_hashLines = new int[oldHashes.length*2];
+        int mask = m_hashes.length-1;
+        for(int i=0;i<oldHashes.length;i++)
+        {
+            long hash = oldHashes[i];
+            if(hash == 0)
+                continue;
+            int slot = (int)(hash ^ (hash >>> 32)) & mask;
+            while(m_hashes[slot] != 0)
+                slot = (slot+1) & mask;
+            m_hashes[slot] = hash;
+            m_hashLines[slot] = oldLines[i];
+        }
+    }
+
+    /** Record a problem.
+     * @param line Line number (0 if the problem has no line).
+     * @param type Problem type.
+     * @param message Description. */
+    private void addProblem(int line, String type, String message)
+    {
+        Integer count = m_counts.get(type);
+        m_counts.put(type, Integer.valueOf(count == null ? 1 : count.intValue()+1));
+        if(m_listed >= MAX_PROBLEMS)
+            return;
+        if(m_listed++ > 0)
+            m_problems.append(",\n");
+        m_problems.append("    {\"line\": ").append(line)
+                  .append(", \"type\": \"").append(type)
+                  .append("\", \"message\": ").append(quote(message)).append('}');
+    }
+
+    /** Total number of problems.
+     * @return Problem count. */
+    public int getProblemCount()
+    {
+        int total = 0;
+        for(Integer count : m_counts.values())
+            total += count.intValue();
+        return total;
+    }
+
+    /** Write the report.
+     * @param seconds Check duration for the report.
+     * @return JSON object. */
+    public String getReport(double seconds)
+    {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"database\": ").append(quote(m_name)).append(",\n");
+        json.append("  \"lines\": ").append(m_lines).append(",\n");
+        json.append("  \"questions\": ").append(m_questions).append(",\n");
+        json.append("  \"seconds\": ").append(Math.round(seconds*1000)/1000.0).append(",\n");
+        json.append("  \"levels\": {");
+        for(int level=1;level<=m_maxDifficulty;level++)
+            json.append(level > 1 ? ", " : "").append('"').append(level).append("\": ").append(m_levels[level]);
+        json.append("},\n");
+        json.append("  \"problem_count\": ").append(getProblemCount()).append(",\n");
+        json.append("  \"problem_types\": {");
+        boolean first = true;
+        for(Map.Entry<String, Integer> entry : m_counts.entrySet())
+        {
+            json.append(first ? "" : ", ").append('"').append(entry.getKey()).append("\": ").append(entry.getValue());
+            first = false;
+        }
+        json.append("},\n");
+        json.append("  \"truncated\": ").append(getProblemCount() > m_listed).append(",\n");
+        if(m_listed == 0)
+            json.append("  \"problems\": []\n");
+        else
+            json.append("  \"problems\": [\n").append(m_problems).append("\n  ]\n");
+        json.append("}");
+        return json.toString();
+    }
+
+    /** Quote a string for JSON.
+     * @param s String.
+     * @return Quoted and escaped string. */
+    private static String quote(String s)
+    {
+        StringBuilder b = new StringBuilder(s.length()+2);
+        b.append('"');
+        for(int i=0;i<s.length();i++)
+        {
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\')
+                b.append('\\').append(c);
+            else if(c < 0x20)
+                b.append(String.format("\\u%04x", Integer.valueOf(c)));
+            else
+                b.append(c);
+        }
+        return b.append('"').toString();
+    }
+
+    /** Mix the bits of a 64 bit hash (from MurmurHash3).
+     * @param h Hash.
+     * @return Mixed hash. */
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Validate databases and print a JSON report.
+     * @param args Database files. */
+    public static void main(String[] args)
+    {
+        if(args.length == 0)
+        {
+            System.out.println("Usage: java -cp quiz.jar javaquiz.QuizDBValidator <db file> ...");
+            System.exit(2);
+        }
+
+        int maxDifficulty = QuizDB.getMaxDifficulty();
+        String[] reports = new String[args.length];
+        boolean ok = true;
+        for(int i=0;i<args.length;i++)
+        {
+            QuizDBValidator validator = new QuizDBValidator(args[i], maxDifficulty);
+            long start = System.nanoTime();
+            try
+            {
+                InputStream in = new BufferedInputStream(new FileInputStream(args[i]));
+                try
+                {
+                    if(QuizDBBinary.isBinary(in))
+                        validator.addProblem(0, "format", "Binary database, only text databases are checked");
+                    else
+                        validator.validate(in);
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch(IOException e)
+            {
+                validator.addProblem(0, "io", "Can't read the database: " + e.getLocalizedMessage());
+            }
+            reports[i] = validator.getReport((System.nanoTime()-start)*1e-9);
+            ok &= (validator.getProblemCount() == 0);
+        }
+
+        String json = Arrays.toString(reports); // [report, report, ...]
+        System.out.println(args.length == 1 ? reports[0] : json);
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,210 @@
+package javaquiz;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/** Watches the database directory and reloads changed databases.
+ *
+ * The watcher checks the modification time and size of the database
+ * files in the directory on a background timer. A file is reloaded when
+ * it has changed and then stayed the same for one more check (so we
+ * don't parse a file that is still being written). A change of a base
+ * database file parses that whole database again, the other databases
+ * are not touched; QuizDBCache.reload() swaps in the new index when it
+ * is complete, so running games keep their questions and new games
+ * never see a half loaded database.
+ *
+ * Only delta files (see QuizDBDelta) are incremental: if a delta file
+ * changes, only its new lines are parsed and applied. A delta file that
+ * grows beyond COMPACT_SIZE is compacted into a new base database.
+ *
+ * Usage:
+ *
+ *      QuizDB.setDatabaseDirectory(dir);
+ *      QuizDBWatcher watcher = new QuizDBWatcher(dir, 2000);
+ *      watcher.start();
+ */
+public class QuizDBWatcher extends TimerTask
+{
+    /** Compact a delta file when it is larger than this [bytes]. */
+    public final static long COMPACT_SIZE = 1 << 20;
+
+    /** Watched directory. */
+    private final File m_directory;
+    /** Check interval in [ms]. */
+    private final long m_interval;
+    /** Timer for the checks. */
+    private Timer m_timer = null;
+    /** Last seen version of each file (name -> stamp). */
+    private final Map<String, Stamp> m_stamps = new HashMap<String, Stamp>();
+    /** Files that have changed and wait for the next check (name -> stamp). */
+    private final Map<String, Stamp> m_pending = new HashMap<String, Stamp>();
+
+    /** Version of a file: modification time and size. */
+    private static class Stamp
+    {
+        /** File.lastModified(). */
+        private final long m_lastModified;
+        /** File.length(). */
+        private final long m_length;
+
+        /** Get the current version of a file.
+         * @param file The file. */
+        Stamp(File file)
+        {
+            m_lastModified = file.lastModified();
+            m_length = file.length();
+        }
+
+        /** Same version?
+         * @param o Other stamp.
+         * @return true if modification time and size are equal. */
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof Stamp))
+                return false;
+            Stamp s = (Stamp)o;
+            return m_lastModified == s.m_lastModified && m_length == s.m_length;
+        }
+
+        /** Hash code of the stamp.
+         * @return Hash of modification time and size. */
+        public int hashCode()
+        {
+            return (int)(m_lastModified ^ (m_lastModified >>> 32)) * 31 + (int)m_length;
+        }
+    }
+
+    /** Create a watcher. Call start() to start watching.
+     * @param directory Database directory.
+     * @param interval Check interval in [ms]. */
+    public QuizDBWatcher(File directory, long interval)
+    {
+        m_directory = directory;
+        m_interval = interval;
+    }
+
+    /** Start watching the directory. */
+    public synchronized void start()
+    {
+        if(m_timer != null)
+            return;
+        check(false); // remember the current state, nothing to reload
+        m_timer = new Timer("QuizDBWatcher", true);
+        m_timer.schedule(this, m_interval, m_interval);
+    }
+
+    /** Stop watching the directory. */
+    public synchronized void stop()
+    {
+        cancel();
+        if(m_timer != null)
+            m_timer.cancel();
+        m_timer = null;
+    }
+
+    /** Timer callback function. Do not call this directly. */
+    public void run()
+    {
+        check(true);
+    }
+
+    /** Compare the files with the last check.
+     * @param reload Reload the changed databases. */
+    private synchronized void check(boolean reload)
+    {
+        File[] files = m_directory.listFiles();
+        if(files == null)
+        {
+            Quiz.Print("QuizDBWatcher: Can't read " + m_directory.getPath());
+            return;
+        }
+
+        Map<String, Stamp> current = new HashMap<String, Stamp>();
+        for(int i=0;i<files.length;i++)
+        {
+            if(files[i].isFile())
+                current.put(files[i].getName(), new Stamp(files[i]));
+        }
+
+        for(Map.Entry<String, Stamp> entry : current.entrySet())
+        {
+            String name = entry.getKey();
+            Stamp stamp = entry.getValue();
+            if(stamp.equals(m_stamps.get(name)))
+            {
+                m_pending.remove(name);
+                continue;
+            }
+            if(!reload || stamp.equals(m_pending.remove(name)))
+            {
+                // unchanged since the last check: the file is complete
+                m_stamps.put(name, stamp);
+                if(reload)
+                    reload(name);
+            }
+            else
+            {
+                m_pending.put(name, stamp); // check again next time
+            }
+        }
+
+        // deleted files: the next game uses the database from the jar
+        for(String name : m_stamps.keySet().toArray(new String[0]))
+        {
+            if(!current.containsKey(name))
+            {
+                m_stamps.remove(name);
+                m_pending.remove(name);
+                if(reload)
+                    reload(name);
+            }
+        }
+    }
+
+    /** Take the current version of a file as seen, so it is not reloaded.
+     * @param name File name. */
+    private void accept(String name)
+    {
+        File file = new File(m_directory, name);
+        if(file.isFile())
+            m_stamps.put(name, new Stamp(file));
+        m_pending.remove(name);
+    }
+
+    /** Reload a changed database, if it is in use.
+     * @param name Database file name. */
+    private void reload(String name)
+    {
+        if(name.endsWith(QuizDBDelta.SUFFIX))
+        {
+            String base = name.substring(0, name.length()-QuizDBDelta.SUFFIX.length());
+            if(!QuizDBCache.isCached(base))
+            {
+                QuizDBCache.invalidate(base);
+                return;
+            }
+            Quiz.Print("QuizDBWatcher: Updating " + base);
+            QuizDBCache.applyDelta(base);
+            File deltaFile = QuizDBDelta.getDeltaFile(base);
+            if(deltaFile != null && deltaFile.length() > COMPACT_SIZE && QuizDBDelta.compact(base))
+            {
+                // our own change, the cache already has these questions
+                accept(base);
+                accept(name);
+            }
+            return;
+        }
+
+        if(!QuizDBCache.isCached(name))
+        {
+            QuizDBCache.invalidate(name); // not loaded (yet), the next game loads the new file
+            return;
+        }
+        Quiz.Print("QuizDBWatcher: Reloading " + name);
+        QuizDBCache.reload(name);
+    }
+}
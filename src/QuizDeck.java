@@ -0,0 +1,197 @@
+package javaquiz;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Shuffled decks for question draws without repetition.
+ *
+ * Each difficulty level has a deck: a shuffled permutation of the
+ * question positions of the level and a cursor. A draw takes the card
+ * at the cursor, so every question of a level is drawn once before any
+ * question comes again, and a draw is O(1) no matter how many questions
+ * of the level have been seen.
+ *
+ * The decks are lock-free, so many games can start at the same time:
+ * a round (permutation and cursor) is published through an
+ * AtomicReference and a draw is one getAndIncrement() on the cursor of
+ * the current round. When a round is used up, the next round is already
+ * shuffled: a background thread keeps one spare round per level ready,
+ * and the thread that finds the round used up swaps in the spare with a
+ * compareAndSet. Only if the spare is not ready yet (very small levels
+ * under heavy load) the drawing thread shuffles a round itself. The
+ * first card of a new round is never the last card of the old round.
+ * A draw does not allocate, except for the rare round change.
+ *
+ * QuizDBIndex has one deck per database for the whole process, so
+ * consecutive games don't repeat questions until the level is used up.
+ * A new version of a database (e.g. a delta) keeps the decks of the
+ * levels that have not changed.
+ */
+public class QuizDeck
+{
+    /** Number of questions of each level. */
+    private final int[] m_sizes;
+    /** Current round of each level (null before the first draw). */
+    private final AtomicReference<Round>[] m_rounds;
+    /** Shuffled next round of each level (null if not ready). */
+    private final AtomicReference<Round>[] m_spares;
+    /** Set while a spare round of a level is shuffled in the background. */
+    private final AtomicBoolean[] m_refilling;
+    /** Random generator for the shuffles (Random is thread safe). */
+    private final Random m_random = new Random();
+
+    /** Background thread for the spare rounds (shared by all decks). */
+    private static final ExecutorService m_shuffler =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "QuizDeck shuffle");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    /** A shuffled permutation and its cursor. */
+    private static class Round
+    {
+        /** Shuffled positions. */
+        final int[] cards;
+        /** Next card (can run past the end when several threads find the round used up). */
+        final AtomicInteger cursor = new AtomicInteger(0);
+
+        /** Constructor.
+         * @param cards Shuffled positions. */
+        Round(int[] cards)
+        {
+            this.cards = cards;
+        }
+    }
+
+    /** Create the decks.
+     * @param sizes Number of questions of each level (index = difficulty level). */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public QuizDeck(int[] sizes)
+    {
+        m_sizes = sizes.clone();
+        m_rounds = new AtomicReference[sizes.length];
+        m_spares = new AtomicReference[sizes.length];
+        m_refilling = new AtomicBoolean[sizes.length];
+        for(int i=0;i<sizes.length;i++)
+        {
+            m_rounds[i] = new AtomicReference<Round>();
+            m_spares[i] = new AtomicReference<Round>();
+            m_refilling[i] = new AtomicBoolean(false);
+        }
+    }
+
+    /** Create the decks for a new version of the questions. The levels
+     * that are kept share their rounds with the old decks, so a draw from
+     * either one continues the same round.
+     * @param sizes Number of questions of each level (index = difficulty level).
+     * @param old Decks of the old version.
+     * @param changed Levels with changed questions (index = difficulty level),
+     *        the other levels must have the same questions in the same order. */
+    public QuizDeck(int[] sizes, QuizDeck old, boolean[] changed)
+    {
+        this(sizes);
+        for(int i=0;i<sizes.length && i<old.m_sizes.length;i++)
+        {
+            if((i < changed.length && changed[i]) || sizes[i] != old.m_sizes[i])
+                continue;
+            m_rounds[i] = old.m_rounds[i];
+            m_spares[i] = old.m_spares[i];
+            m_refilling[i] = old.m_refilling[i];
+        }
+    }
+
+    /** Draw the next card of a level.
+     * @param level Difficulty level.
+     * @return Position within the level (0..size-1) or -1 if the level is empty. */
+    public int draw(int level)
+    {
+        if(level < 0 || level >= m_sizes.length || m_sizes[level] == 0)
+            return -1;
+
+        AtomicReference<Round> current = m_rounds[level];
+        while(true)
+        {
+            Round round = current.get();
+            if(round != null)
+            {
+                int i = round.cursor.getAndIncrement();
+                if(i < round.cards.length)
+                    return round.cards[i];
+            }
+            nextRound(level, round);
+        }
+    }
+
+    /** Replace a used up round of a level with the spare round.
+     * Does nothing if another thread has already done it.
+     * @param level Difficulty level.
+     * @param old The used up round (null before the first draw). */
+    private void nextRound(int level, Round old)
+    {
+        Round next = m_spares[level].getAndSet(null);
+        if(next == null)
+            next = new Round(shuffle(m_sizes[level])); // the spare is not ready yet
+
+        // we own next until it is published, so we can still change it
+        int[] cards = next.cards;
+        if(old != null && cards.length > 1 && cards[0] == old.cards[old.cards.length-1])
+        {
+            cards[0] = cards[cards.length-1];
+            cards[cards.length-1] = old.cards[old.cards.length-1];
+        }
+
+        if(m_rounds[level].compareAndSet(old, next))
+            refill(level);
+        else
+            m_spares[level].compareAndSet(null, next); // another thread was faster, keep it as spare
+    }
+
+    /** Shuffle a spare round of a level in the background.
+     * @param level Difficulty level. */
+    private void refill(final int level)
+    {
+        if(!m_refilling[level].compareAndSet(false, true))
+            return;
+        m_shuffler.execute(new Runnable() {
+            public void run()
+            {
+                try
+                {
+                    if(m_spares[level].get() == null)
+                        m_spares[level].compareAndSet(null, new Round(shuffle(m_sizes[level])));
+                }
+                finally
+                {
+                    m_refilling[level].set(false);
+                }
+            }
+        });
+    }
+
+    /** Create a shuffled permutation (Fisher-Yates).
+     * @param size Number of cards.
+     * @return Cards 0..size-1 in random order. */
+    private int[] shuffle(int size)
+    {
+        int[] cards = new int[size];
+        for(int i=0;i<size;i++)
+            cards[i] = i;
+        for(int i=size-1;i>0;i--)
+        {
+            int j = m_random.nextInt(i+1);
+            int tmp = cards[i];
+            cards[i] = cards[j];
+            cards[j] = tmp;
+        }
+        return cards;
+    }
+}
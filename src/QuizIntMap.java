@@ -0,0 +1,95 @@
+package javaquiz;
+
+import java.util.Arrays;
+
+/** Small hash map from int keys to int values (open addressing,
+ * linear probing). No boxing, no entry objects: keys and values are
+ * stored in two flat int arrays.
+ *
+ * The map has a fixed capacity and is meant to be filled once and then
+ * only read (e.g. the question id index of QuizDBIndex). Reading from
+ * several threads is fine once the map is filled and published.
+ * Values must not be negative, -1 is used to mark empty slots.
+ */
+public class QuizIntMap
+{
+    /** Marker for an empty slot in m_values. */
+    private static final int EMPTY = -1;
+
+    /** Keys, only valid if the matching m_values entry is not EMPTY. */
+    private final int[] m_keys;
+    /** Values, EMPTY if the slot is unused. */
+    private final int[] m_values;
+    /** m_keys.length-1, the capacity is a power of two. */
+    private final int m_mask;
+    /** Number of used slots. */
+    private int m_size = 0;
+
+    /** Create an empty map.
+     * @param expectedSize How many keys will be stored at most. */
+    public QuizIntMap(int expectedSize)
+    {
+        // keep the load factor at 0.5 or below, so the probe chains stay short.
+        int capacity = 2;
+        while(capacity < expectedSize*2)
+            capacity <<= 1;
+        m_keys = new int[capacity];
+        m_values = new int[capacity];
+        Arrays.fill(m_values, EMPTY);
+        m_mask = capacity-1;
+    }
+
+    /** Store a key/value pair. An existing value for the key is replaced.
+     * @param key Any int.
+     * @param value Value (must be >= 0). */
+    public void put(int key, int value)
+    {
+        assert value >= 0;
+        int slot = hash(key) & m_mask;
+        while(m_values[slot] != EMPTY)
+        {
+            if(m_keys[slot] == key)
+            {
+                m_values[slot] = value;
+                return;
+            }
+            slot = (slot+1) & m_mask;
+        }
+        assert m_size < m_keys.length-1; // we need at least one free slot
+        m_keys[slot] = key;
+        m_values[slot] = value;
+        m_size++;
+    }
+
+    /** Look up a key.
+     * @param key The key.
+     * @return The value or -1 if the key is not in the map. */
+    public int get(int key)
+    {
+        int slot = hash(key) & m_mask;
+        int value;
+        while((value = m_values[slot]) != EMPTY)
+        {
+            if(m_keys[slot] == key)
+                return value;
+            slot = (slot+1) & m_mask;
+        }
+        return EMPTY;
+    }
+
+    /** How many keys are stored in the map.
+     * @return Key count. */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /** Spread the key bits, the question ids are mostly consecutive numbers.
+     * @param key The key.
+     * @return Hash value. */
+    private static int hash(int key)
+    {
+        int h = key * 0x9E3779B9; // golden ratio
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,5 +1,8 @@
 package javaquiz;
 
+import java.util.Arrays;
+import java.util.concurrent.*;
+
 /**
  * The complete game state is represented by the QuizModel class.
  * E. g. serializing the content of this class to a file would
@@ -54,10 +57,99 @@ public class QuizModel
     private int m_jokerFiftyRound;
     /** The current language. */
     private QuizLanguage m_language = null;
-
-    /** Default constructor. To prepare the model, you have to call the init method.*/
+    /** Lazy mode: load the question of a level only when it is needed. */
+    private boolean m_lazyLoading = false;
+    /** Mode of the current game: copy of m_lazyLoading from init(). */
+    private boolean m_gameLazy = false;
+    /** Lazy mode: the question for this level is loaded in the background (0 if none). */
+    private int m_prefetchLevel = 0;
+    /** Lazy mode: the background job for m_prefetchLevel. */
+    private Future<QuizQuestion> m_prefetch = null;
+    /** Where the questions come from. */
+    private volatile QuizQuestionSource m_source;
+
+    /** Threads of the shared prefetch pool. */
+    private static final int PREFETCH_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    /** Prefetches that can wait for a thread of the shared pool. If there
+     *  are more, the question is loaded when it is needed. */
+    private static final int MAX_QUEUED_PREFETCHES = 1024;
+    /** Background threads for the lazy mode (shared by the models without own executor). */
+    private static final ExecutorService m_sharedPrefetchExecutor = createPrefetchExecutor();
+    /** Lazy mode: runs the prefetches of this model. */
+    private volatile ExecutorService m_prefetchExecutor = m_sharedPrefetchExecutor;
+
+    /** Default constructor. To prepare the model, you have to call the init method.
+     *  The questions are loaded with QuizDB. */
     public QuizModel()
     {
+        this(new QuizDB());
+    }
+
+    /** Constructor with another question backend. To prepare the model, you have to call the init method.
+     *  @param source Where the questions come from. */
+    public QuizModel(QuizQuestionSource source)
+    {
+        m_source = source;
+    }
+
+    /** Change the question backend. This takes effect with the next question that is loaded.
+     *  @param source Where the questions come from. */
+    public void setQuestionSource(QuizQuestionSource source)
+    {
+        m_source = source;
+    }
+
+    /** Get the question backend.
+     *  @return Where the questions come from. */
+    public QuizQuestionSource getQuestionSource()
+    {
+        return m_source;
+    }
+
+    /** Enable or disable the lazy loading mode.
+     *  In the lazy mode, init() does not load the questions of the game.
+     *  The question of a level is loaded when getCurrentQuestion() needs
+     *  it for the first time and the question of the next level is
+     *  prefetched in the background. This takes effect with the next init() call.
+     *  @param lazy true for the lazy mode. */
+    public void setLazyLoading(boolean lazy)
+    {
+        m_lazyLoading = lazy;
+    }
+
+    /** Is the lazy loading mode enabled?
+     *  @return true in the lazy mode. */
+    public boolean isLazyLoading()
+    {
+        return m_lazyLoading;
+    }
+
+    /** Run the prefetches of the lazy mode on another executor, e.g. a
+     *  pool of the server that hosts the games. The owner shuts it down.
+     *  @param executor Executor or null for the shared pool of all models. */
+    public void setPrefetchExecutor(ExecutorService executor)
+    {
+        m_prefetchExecutor = (executor != null) ? executor : m_sharedPrefetchExecutor;
+    }
+
+    /** Create the shared prefetch pool: a few daemon threads with a
+     *  bounded queue, the threads end when there is nothing to do.
+     *  @return The executor. */
+    private static ExecutorService createPrefetchExecutor()
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            PREFETCH_THREADS, PREFETCH_THREADS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(MAX_QUEUED_PREFETCHES),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "QuizModel prefetch");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /** Start a new game.
@@ -72,14 +164,20 @@ public class QuizModel
         m_questions = null;
         m_eliminatedQuestions = new int[0]; // initialize with empty array
         m_jokerFiftyRound = -1;
+        m_gameLazy = m_lazyLoading; // a game keeps its mode until the next init()
         changeLanguage(langId); // this will also load the questions
     }
 
     /** Change the game language. This will load the quiz database for the language.
      *  @param langID Language identifier, e. g. LanguageID.ENGLISH */
-    public void changeLanguage(QuizLanguage.LanguageID langID)
+    public synchronized void changeLanguage(QuizLanguage.LanguageID langID)
     {
         m_language = QuizLanguage.getLanguage(langID);
+        if(m_gameLazy)
+        {
+            changeLanguageLazy();
+            return;
+        }
 
         // should we just reload the same questions in another language?
         // yes, if we already have some questions loaded.
@@ -97,6 +195,120 @@ public class QuizModel
             Quiz.Print("Q " + i + " " + m_questions[i].getQuestion());
     }
 
+    /** Lazy mode version of changeLanguage: only the questions that are
+     *  already loaded are reloaded in the new language, the other levels
+     *  stay empty until they are needed. */
+    private void changeLanguageLazy()
+    {
+        cancelPrefetch(); // a running prefetch is for the old language
+        String fileName = getLanguage().getString(QuizLanguage.StringID.DATABASEFILE);
+
+        if(m_questions == null)
+        {
+            // new game: nothing to load yet, start with the first question
+            m_questions = new QuizQuestion[getScoretable().length-1];
+            prefetch(fileName, 1);
+            return;
+        }
+
+        int count = 0;
+        int[] ids = new int[m_questions.length];
+        for(int i=0;i<m_questions.length;i++)
+        {
+            if(m_questions[i] != null)
+                ids[count++] = m_questions[i].getID();
+        }
+        QuizQuestion[] qarray = m_source.getSpecificQuestions(fileName, Arrays.copyOf(ids, count));
+
+        QuizQuestion[] questions = new QuizQuestion[m_questions.length];
+        for(int i=0;i<qarray.length;i++)
+        {
+            int level = qarray[i].getDifficulty();
+            if(level >= 1 && level <= questions.length)
+                questions[level-1] = qarray[i];
+        }
+        if(qarray.length < count)
+            Quiz.Print("Failed to load questions from file.");
+        m_questions = questions;
+    }
+
+    /** Lazy mode: get the question for a level, load it if necessary.
+     *  Starts the prefetch of the next level.
+     *  @param level Question level (1..max).
+     *  @return Question object or null if there is no question for this level. */
+    private synchronized QuizQuestion resolveQuestion(int level)
+    {
+        String fileName = getLanguage().getString(QuizLanguage.StringID.DATABASEFILE);
+        QuizQuestion q = m_questions[level-1];
+        if(q == null)
+        {
+            if(m_prefetchLevel == level)
+                q = waitForPrefetch();
+            if(q == null) // no prefetch or the prefetch failed
+                q = m_source.getRandomQuestion(fileName, level);
+            m_questions[level-1] = q;
+        }
+
+        // the next level will be needed soon, if the player is good
+        if(level < m_questions.length && m_questions[level] == null && m_prefetchLevel != level+1)
+            prefetch(fileName, level+1);
+        return q;
+    }
+
+    /** Lazy mode: load the question of a level in the background.
+     *  @param fileName Quiz database file.
+     *  @param level Question level. */
+    private void prefetch(final String fileName, final int level)
+    {
+        cancelPrefetch();
+        final QuizQuestionSource source = m_source;
+        try
+        {
+            m_prefetch = m_prefetchExecutor.submit(new Callable<QuizQuestion>() {
+                public QuizQuestion call()
+                {
+                    return source.getRandomQuestion(fileName, level);
+                }
+            });
+            m_prefetchLevel = level;
+        }
+        catch(RejectedExecutionException e)
+        {
+            // too many prefetches, the question is loaded when it is needed
+        }
+    }
+
+    /** Lazy mode: wait for the running prefetch.
+     *  @return The prefetched question or null if it failed. */
+    private QuizQuestion waitForPrefetch()
+    {
+        Future<QuizQuestion> prefetch = m_prefetch;
+        m_prefetch = null;
+        m_prefetchLevel = 0;
+        try
+        {
+            return prefetch.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch(ExecutionException e)
+        {
+            Quiz.Print("Failed to prefetch question: " + e.getCause());
+        }
+        return null;
+    }
+
+    /** Lazy mode: forget a running prefetch. */
+    private void cancelPrefetch()
+    {
+        if(m_prefetch != null)
+            m_prefetch.cancel(false);
+        m_prefetch = null;
+        m_prefetchLevel = 0;
+    }
+
     /** Get the current game language.
      * @return Current language. */
     public QuizLanguage getLanguage()
@@ -195,10 +407,11 @@ public class QuizModel
         }
 
         assert m_level <= m_questions.length;
-        if(m_level <= m_questions.length)
-            return m_questions[m_level-1];
-        else
+        if(m_level > m_questions.length)
             return null;
+        if(m_gameLazy)
+            return resolveQuestion(m_level);
+        return m_questions[m_level-1];
     }
 
     /** Get the current score.
@@ -274,7 +487,7 @@ public class QuizModel
      *  loaded from the German quiz database.
      *  loadSameQuestions true makes no sense if no questions are loaded in the model.
      *
-     * @param filePath File system path to the database file.
+     * @param filePath Database file name (see QuizQuestionSource).
      * @param loadSameQuestions Load the same questions (requires that we already have questions loaded).
      * @return An array with question objects.
      */
@@ -292,7 +505,7 @@ public class QuizModel
         //QuizQuestion q8 = new QuizQuestion(8, 8, "This game is...", "Awesome", "Stupid", "Annoying", "Useless", 0);
         //QuizQuestion[] qarray = {q1, q2, q3, q4, q5, q6, q7, q8};
 
-        QuizDB db = new QuizDB();
+        QuizQuestionSource db = m_source;
         QuizQuestion[] qarray;
         int questions = getScoretable().length-1;
 
@@ -46,6 +46,23 @@ public class QuizQuestion
         assert difficulty > 0;
     }
 
+    /**
+     * Constructor for subclasses that store the question and answer
+     * strings somewhere else (e.g. QuizDBMapped). Such a subclass has to
+     * override getQuestion(), getAnswer() and getAnswerCount().
+     * @param id unique id.
+     * @param difficulty Difficulty level. Starts at 1.
+     * @param correctAnswer Index of the correct answer (0..3)
+     */
+    protected QuizQuestion(int id, int difficulty, int correctAnswer)
+    {
+        m_id = id;
+        m_difficulty = difficulty;
+        m_correctAnswer = correctAnswer;
+        assert correctAnswer >= 0 && correctAnswer <= 3;
+        assert difficulty > 0;
+    }
+
     /** Get the question id.
      * @return Unique question id. */
     public int getID()
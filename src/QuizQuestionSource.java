@@ -0,0 +1,44 @@
+package javaquiz;
+
+/** Where the questions of a game come from.
+ *
+ * QuizModel only talks to this interface, so the backend can be changed
+ * without touching the game logic. A database is identified by the file
+ * name from QuizLanguage.StringID.DATABASEFILE (e.g. "en.qdb"), each
+ * language has its own database and the question ids are the same in
+ * all languages.
+ *
+ * Implementations:
+ * <ul>
+ * <li>QuizDB: text or binary databases, cached in memory (or streamed, see QuizDB.LoadMode).</li>
+ * <li>QuizDBMappedSource: memory-mapped binary databases from a directory.</li>
+ * <li>QuizStore: page based store with indexes on the local disk.</li>
+ * </ul>
+ * Implementations must be thread safe, the lazy mode of QuizModel
+ * loads questions on a background thread.
+ */
+public interface QuizQuestionSource
+{
+    /** Draws a random set of questions, one question per difficulty level.
+     * @param database Database name, e.g. "en.qdb".
+     * @return Array of questions, sorted by difficulty. Empty if something fails. */
+    QuizQuestion[] getRandomQuestions(String database);
+
+    /** Draws one random question of a difficulty level.
+     * @param database Database name, e.g. "en.qdb".
+     * @param difficulty Difficulty level (1..max).
+     * @return Question object or null if there is no question for this level. */
+    QuizQuestion getRandomQuestion(String database, int difficulty);
+
+    /** Loads a specific set of questions (e.g. the same questions in another language).
+     * @param database Database name, e.g. "de.qdb".
+     * @param ids Question ids (the array is not modified).
+     * @return Array of questions, sorted by difficulty. Unknown ids are skipped. */
+    QuizQuestion[] getSpecificQuestions(String database, int[] ids);
+
+    /** How many questions of a difficulty level are available.
+     * @param database Database name, e.g. "en.qdb".
+     * @param difficulty Difficulty level (1..max).
+     * @return Question count, 0 if the level is out of range. */
+    int getQuestionCount(String database, int difficulty);
+}
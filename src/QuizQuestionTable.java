@@ -0,0 +1,253 @@
+package javaquiz;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/** Column oriented question table.
+ *
+ * Instead of an array of QuizQuestion objects, the table keeps one
+ * primitive array per attribute: ids, difficulty levels and correct
+ * answers, plus the texts of all questions in one UTF-8 byte array with
+ * an offset array. The rows are sorted by difficulty level (in file
+ * order within a level), so the questions of a level are one range of
+ * rows and a random question of a level is drawn in O(1). An id index
+ * (see QuizIntMap) finds the row of a question id in O(1). No text is
+ * touched until a question is shown.
+ *
+ * The table is immutable. The questions returned by getQuestion() are
+ * flyweights that decode their texts from the table when needed.
+ */
+public class QuizQuestionTable
+{
+    /** Texts per question (question and answers). */
+    private final static int TEXTS = 5;
+
+    /** Question ids. */
+    private final int[] m_ids;
+    /** Difficulty levels. */
+    private final byte[] m_difficulty;
+    /** Correct answer indices. */
+    private final byte[] m_correct;
+    /** Start of each text in m_text: text k of row i starts at
+     *  m_offsets[TEXTS*i+k] and ends at m_offsets[TEXTS*i+k+1]. */
+    private final int[] m_offsets;
+    /** UTF-8 text of all questions. */
+    private final byte[] m_text;
+    /** First row of each level: level d has the rows m_levelStart[d]
+     *  to m_levelStart[d+1]-1. */
+    private final int[] m_levelStart;
+    /** Question id -> row. */
+    private final QuizIntMap m_rows;
+    /** Highest difficulty level of the table. */
+    private final int m_maxDifficulty;
+
+    /** Build a table.
+     * @param questions Questions (the array is not modified).
+     * @param maxDifficulty Highest difficulty level. Questions outside 1..maxDifficulty are skipped. */
+    public QuizQuestionTable(QuizQuestion[] questions, int maxDifficulty)
+    {
+        m_maxDifficulty = maxDifficulty;
+
+        // sort the rows by level (counting sort, keeps the file order within a level)
+        m_levelStart = new int[maxDifficulty+2];
+        for(int i=0;i<questions.length;i++)
+        {
+            int difficulty = questions[i].getDifficulty();
+            if(difficulty >= 1 && difficulty <= maxDifficulty)
+                m_levelStart[difficulty+1]++;
+        }
+        for(int d=0;d<=maxDifficulty;d++)
+            m_levelStart[d+1] += m_levelStart[d];
+        int count = m_levelStart[maxDifficulty+1];
+        int[] next = m_levelStart.clone();
+        QuizQuestion[] sorted = new QuizQuestion[count];
+        for(int i=0;i<questions.length;i++)
+        {
+            int difficulty = questions[i].getDifficulty();
+            if(difficulty >= 1 && difficulty <= maxDifficulty)
+                sorted[next[difficulty]++] = questions[i];
+        }
+        questions = sorted;
+
+        m_ids = new int[count];
+        m_difficulty = new byte[count];
+        m_correct = new byte[count];
+        m_offsets = new int[TEXTS*count+1];
+
+        byte[][] utf8 = new byte[TEXTS*count][];
+        int size = 0;
+        m_rows = new QuizIntMap(count);
+        for(int i=0;i<count;i++)
+        {
+            QuizQuestion q = questions[i];
+            m_ids[i] = q.getID();
+            m_difficulty[i] = (byte)q.getDifficulty();
+            m_correct[i] = (byte)q.getCorrectAnswer();
+            if(m_rows.get(q.getID()) < 0) // the first row of an id wins
+                m_rows.put(q.getID(), i);
+            for(int k=0;k<TEXTS;k++)
+            {
+                byte[] b = (k == 0 ? q.getQuestion() : q.getAnswer(k-1)).getBytes(QuizDBBinary.UTF8);
+                utf8[TEXTS*i+k] = b;
+                m_offsets[TEXTS*i+k] = size;
+                size += b.length;
+            }
+        }
+        m_offsets[TEXTS*count] = size;
+
+        m_text = new byte[size];
+        for(int j=0;j<utf8.length;j++)
+            System.arraycopy(utf8[j], 0, m_text, m_offsets[j], utf8[j].length);
+    }
+
+    /** Number of rows.
+     * @return Question count. */
+    public int getQuestionCount()
+    {
+        return m_ids.length;
+    }
+
+    /** How many questions of a difficulty level are in the table.
+     * @param difficulty Difficulty level (1..max).
+     * @return Question count. */
+    public int getQuestionCount(int difficulty)
+    {
+        if(difficulty < 0 || difficulty > m_maxDifficulty)
+            return 0;
+        return m_levelStart[difficulty+1] - m_levelStart[difficulty];
+    }
+
+    /** Question count of each level.
+     * @return Array with the count of level d at index d (0..max). */
+    public int[] getLevelCounts()
+    {
+        int[] counts = new int[m_maxDifficulty+1];
+        for(int d=0;d<counts.length;d++)
+            counts[d] = m_levelStart[d+1] - m_levelStart[d];
+        return counts;
+    }
+
+    /** Select the rows of a difficulty level.
+     * @param difficulty Difficulty level (1..max).
+     * @return Row indices in table order. */
+    public int[] selectLevel(int difficulty)
+    {
+        int[] rows = new int[getQuestionCount(difficulty)];
+        for(int n=0;n<rows.length;n++)
+            rows[n] = m_levelStart[difficulty] + n;
+        return rows;
+    }
+
+    /** Find the row of a question id.
+     * @param id Question id.
+     * @return Row index or -1 if the id is unknown. */
+    public int findRow(int id)
+    {
+        return m_rows.get(id);
+    }
+
+    /** Draws a random set of questions, one question per difficulty level.
+     * @param random Random generator.
+     * @return Array of questions, sorted by difficulty. */
+    public QuizQuestion[] getRandomQuestions(Random random)
+    {
+        int maxQuestions = Math.min(QuizDB.getMaxDifficulty(), m_maxDifficulty);
+        QuizQuestion[] questions = new QuizQuestion[maxQuestions];
+        int questionsFound = 0;
+        for(int d=1;d<=maxQuestions;d++)
+        {
+            QuizQuestion q = getRandomQuestion(d, random);
+            if(q != null)
+                questions[questionsFound++] = q;
+        }
+        return Arrays.copyOf(questions, questionsFound);
+    }
+
+    /** Draws one random question of a difficulty level.
+     * @param difficulty Difficulty level (1..max).
+     * @param random Random generator.
+     * @return Question object or null if there is no question for this level. */
+    public QuizQuestion getRandomQuestion(int difficulty, Random random)
+    {
+        int count = getQuestionCount(difficulty);
+        if(count == 0)
+            return null;
+        return getQuestion(m_levelStart[difficulty] + random.nextInt(count));
+    }
+
+    /** Loads a specific set of questions (e.g. the same questions in another language).
+     * @param ids Question ids (the array is not modified).
+     * @return Array of questions, sorted by difficulty. Unknown ids are skipped. */
+    public QuizQuestion[] getSpecificQuestions(int[] ids)
+    {
+        QuizQuestion[] qarray = new QuizQuestion[ids.length];
+        int questionsFound = 0;
+        for(int i=0;i<ids.length;i++)
+        {
+            int row = findRow(ids[i]);
+            if(row >= 0)
+                qarray[questionsFound++] = getQuestion(row);
+        }
+        qarray = Arrays.copyOf(qarray, questionsFound);
+        Arrays.sort(qarray, new QuizDB.QuestionComparator());
+        return qarray;
+    }
+
+    /** Get the question of a row.
+     * @param row Row index.
+     * @return Question object (decodes its texts from the table). */
+    public QuizQuestion getQuestion(int row)
+    {
+        return new TableQuestion(row);
+    }
+
+    /** Decode a text of a row.
+     * @param row Row index.
+     * @param k Text index (0 = question, 1..4 = answers).
+     * @return Decoded string. */
+    private String getText(int row, int k)
+    {
+        int start = m_offsets[TEXTS*row+k];
+        int end = m_offsets[TEXTS*row+k+1];
+        return new String(m_text, start, end-start, QuizDBBinary.UTF8);
+    }
+
+    /** Flyweight question: only the row index is stored,
+     *  the strings are decoded on demand. */
+    private class TableQuestion extends QuizQuestion
+    {
+        /** Row in the table. */
+        private final int m_row;
+
+        /** Create a flyweight for a row.
+         * @param row Row index. */
+        TableQuestion(int row)
+        {
+            super(m_ids[row], m_difficulty[row], m_correct[row]);
+            m_row = row;
+        }
+
+        public String getQuestion()
+        {
+            return getText(m_row, 0);
+        }
+
+        public String getAnswer(int index)
+        {
+            if(index < TEXTS-1 && index >= 0)
+            {
+                return getText(m_row, index+1);
+            }
+            else
+            {
+                assert false;
+                return "";
+            }
+        }
+
+        public int getAnswerCount()
+        {
+            return TEXTS-1;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package javaquiz;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Hosts many independent games in one process (kiosks, online play).
+ *
+ * Each session is a QuizModel with its own QuizController and a
+ * headless view (QuizViewHeadless). The controllers don't create their
+ * own timers. There are three modes (TickMode):
+ *
+ *      SHARED_TIMER        the sessions are distributed over a few
+ *                          stripes, one shared ScheduledExecutorService
+ *                          ticks each stripe every UPDATE_RATE ms. All
+ *                          sessions are polled, even if they wait for the
+ *                          player.
+ *      DEADLINES           each stripe has a QuizTimingWheel. A session is
+ *                          only updated when its state times out or a
+ *                          command arrives, so waiting sessions cost no
+ *                          CPU time. A failed update ends the session
+ *                          (see QuizController.setFailureHandler()).
+ *      THREAD_PER_SESSION  each session runs QuizController.runLoop() on
+ *                          its own thread, which sleeps until the next
+ *                          state timeout or command. Virtual threads if
+ *                          the Java version has them (21+), otherwise
+ *                          platform threads with a small stack.
+ *
+ * So 10000 games need a handful of threads instead of 10000 timer
+ * threads (or cheap virtual threads). A session is only updated by one
+ * thread, so the single thread model of QuizController still holds; the
+ * players' commands go through the command queue of the controller.
+ *
+ * Usage:
+ *
+ *      QuizSessionManager manager = new QuizSessionManager(4);
+ *      QuizSessionManager.Session s = manager.create(QuizLanguage.LanguageID.ENGLISH);
+ *      s.postCommand(QuizCommand.ANSWER_B);
+ *      ...
+ *      manager.evict(s.getID());
+ *      manager.shutdown();
+ */
+public class QuizSessionManager
+{
+    /** Update rate of the sessions in [ms] (the same as QuizController). */
+    public final static int UPDATE_RATE = QuizController.UPDATE_RATE;
+
+    /** How the sessions are updated. */
+    public enum TickMode
+    {
+        /** Poll all sessions every UPDATE_RATE ms. */
+        SHARED_TIMER,
+        /** Update a session only for its state timeouts and commands. */
+        DEADLINES,
+        /** Run each session in its own (virtual) thread. */
+        THREAD_PER_SESSION
+    }
+
+    /** Stack size of the platform threads in THREAD_PER_SESSION mode [bytes]. */
+    private final static long SESSION_STACK_SIZE = 256*1024;
+
+    /** One game. */
+    public static class Session
+    {
+        /** Session id. */
+        private final long m_id;
+        /** Game state. */
+        private final QuizModel m_model;
+        /** Game logic. */
+        private final QuizController m_controller;
+        /** Command input. */
+        private final QuizViewHeadless m_view;
+        /** Stripe that ticks this session. */
+        private final int m_stripe;
+        /** Time of the last command [ms]. */
+        private volatile long m_lastAccess;
+
+        /** Create a session.
+         * @param id Session id.
+         * @param stripe Stripe that ticks this session.
+         * @param wheel Timing wheel of the stripe (null: the stripe is polled). */
+        Session(long id, int stripe, QuizTimingWheel wheel)
+        {
+            m_id = id;
+            m_stripe = stripe;
+            m_model = new QuizModel();
+            m_controller = (wheel != null) ? new QuizController(wheel) : new QuizController(false);
+            m_controller.setSoundEnabled(false);
+            m_view = new QuizViewHeadless();
+            m_lastAccess = System.currentTimeMillis();
+        }
+
+        /** Get the session id.
+         * @return Unique id within the manager. */
+        public long getID()
+        {
+            return m_id;
+        }
+
+        /** Get the game state. Read only: the controller changes the
+         *  model on the tick thread, use postCommand() for actions.
+         * @return Model of this session. */
+        public QuizModel getModel()
+        {
+            return m_model;
+        }
+
+        /** Send a player command to the game, e.g. "button0", "restart" or "togglelanguage"
+         *  (see QuizView). It is processed with the next tick (at once in DEADLINES mode).
+         * @param cmd Command string. */
+        public synchronized void postCommand(String cmd)
+        {
+            m_lastAccess = System.currentTimeMillis();
+            m_view.fireEvent(cmd);
+        }
+
+        /** Send a player command to the game without a command string.
+         *  Any thread can call this (the command queue of the controller
+         *  has a single producer, so the session serializes the callers).
+         * @param command The command.
+         * @return false if the command has been dropped (too many pending commands). */
+        public synchronized boolean postCommand(QuizCommand command)
+        {
+            m_lastAccess = System.currentTimeMillis();
+            return m_controller.postCommand(command);
+        }
+
+        /** Number of dropped commands (see postCommand()).
+         * @return Dropped commands since the start of the session. */
+        public long getDroppedCommands()
+        {
+            return m_controller.getDroppedCommands();
+        }
+
+        /** Time of the last command or of the creation.
+         * @return Absolute time in [ms]. */
+        public long getLastAccess()
+        {
+            return m_lastAccess;
+        }
+    }
+
+    /** All sessions (id -> session). */
+    private final ConcurrentHashMap<Long, Session> m_sessions = new ConcurrentHashMap<Long, Session>();
+    /** Sessions of each stripe. */
+    private final ConcurrentHashMap<Long, Session>[] m_stripes;
+    /** Shared tick threads (SHARED_TIMER mode). */
+    private final ScheduledExecutorService m_scheduler;
+    /** Timing wheel of each stripe (DEADLINES mode). */
+    private final QuizTimingWheel[] m_wheels;
+    /** Creates the session threads (THREAD_PER_SESSION mode). */
+    private final ThreadFactory m_sessionThreads;
+    /** Next session id. */
+    private final AtomicLong m_nextID = new AtomicLong(1);
+    /** Duration of the slowest stripe tick so far [ns]. */
+    private final AtomicLong m_maxTickTime = new AtomicLong(0);
+    /** Start new sessions in the lazy loading mode (see QuizModel.setLazyLoading()). */
+    private volatile boolean m_lazyLoading = false;
+
+    /** Create a manager with one stripe per CPU. */
+    public QuizSessionManager()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Create a manager that polls the sessions.
+     * @param threads Number of tick threads (and stripes). */
+    public QuizSessionManager(int threads)
+    {
+        this(TickMode.SHARED_TIMER, threads);
+    }
+
+    /** Create a manager.
+     * @param mode How the sessions are updated.
+     * @param threads Number of tick threads (and stripes), not used in THREAD_PER_SESSION mode. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public QuizSessionManager(TickMode mode, int threads)
+    {
+        m_stripes = new ConcurrentHashMap[threads];
+        for(int i=0;i<threads;i++)
+            m_stripes[i] = new ConcurrentHashMap<Long, Session>();
+        if(mode == TickMode.THREAD_PER_SESSION)
+        {
+            m_scheduler = null;
+            m_wheels = null;
+            m_sessionThreads = createSessionThreadFactory();
+            return;
+        }
+        m_sessionThreads = null;
+        if(mode == TickMode.DEADLINES)
+        {
+            m_scheduler = null;
+            m_wheels = new QuizTimingWheel[threads];
+            for(int i=0;i<threads;i++)
+                m_wheels[i] = new QuizTimingWheel("QuizSessionManager wheel");
+            return;
+        }
+
+        m_wheels = null;
+        m_scheduler = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "QuizSessionManager tick");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for(int i=0;i<threads;i++)
+        {
+            final ConcurrentHashMap<Long, Session> stripe = m_stripes[i];
+            m_scheduler.scheduleAtFixedRate(new Runnable() {
+                public void run()
+                {
+                    tick(stripe);
+                }
+            }, UPDATE_RATE, UPDATE_RATE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Load the questions of the new sessions one level at a time
+     * (see QuizModel.setLazyLoading()). Running sessions are not changed.
+     * @param lazy true for the lazy mode. */
+    public void setLazyLoading(boolean lazy)
+    {
+        m_lazyLoading = lazy;
+    }
+
+    /** Start a new game.
+     * @param langID Language of the game.
+     * @return The new session. */
+    public Session create(QuizLanguage.LanguageID langID)
+    {
+        long id = m_nextID.getAndIncrement();
+        int stripe = (int)(id % m_stripes.length);
+        final Session session = new Session(id, stripe, (m_wheels != null) ? m_wheels[stripe] : null);
+        session.m_controller.setFailureHandler(new QuizController.FailureHandler() {
+            public void failed(QuizController controller, Throwable e)
+            {
+                fail(session, e);
+            }
+        });
+        session.m_model.setLazyLoading(m_lazyLoading);
+        session.m_controller.init(session.m_model, session.m_view, langID);
+        m_sessions.put(Long.valueOf(id), session);
+        m_stripes[session.m_stripe].put(Long.valueOf(id), session);
+        if(m_sessionThreads != null)
+        {
+            m_sessionThreads.newThread(new Runnable() {
+                public void run()
+                {
+                    runSession(session);
+                }
+            }).start();
+        }
+        return session;
+    }
+
+    /** Find a session.
+     * @param id Session id.
+     * @return Session or null if there is no session with this id. */
+    public Session get(long id)
+    {
+        return m_sessions.get(Long.valueOf(id));
+    }
+
+    /** End a session. It is not updated anymore.
+     * @param id Session id.
+     * @return true if the session existed. */
+    public boolean evict(long id)
+    {
+        Session session = m_sessions.remove(Long.valueOf(id));
+        if(session == null)
+            return false;
+        m_stripes[session.m_stripe].remove(Long.valueOf(id));
+        session.m_controller.shutdown();
+        return true;
+    }
+
+    /** End all sessions without a command for some time.
+     * @param maxIdle Maximum idle time in [ms].
+     * @return Number of ended sessions. */
+    public int evictIdle(long maxIdle)
+    {
+        long limit = System.currentTimeMillis() - maxIdle;
+        int count = 0;
+        for(Session session : m_sessions.values())
+        {
+            if(session.getLastAccess() < limit && evict(session.getID()))
+                count++;
+        }
+        return count;
+    }
+
+    /** Number of sessions.
+     * @return Session count. */
+    public int size()
+    {
+        return m_sessions.size();
+    }
+
+    /** Duration of the slowest tick of a stripe so far. If this gets
+     *  close to UPDATE_RATE, the manager needs more threads.
+     * @return Time in [ns], 0 in DEADLINES and THREAD_PER_SESSION mode (there are no ticks). */
+    public long getMaxTickTime()
+    {
+        return m_maxTickTime.get();
+    }
+
+    /** Stop the tick threads and end all sessions. */
+    public void shutdown()
+    {
+        if(m_scheduler != null)
+            m_scheduler.shutdownNow();
+        for(Session session : m_sessions.values())
+            evict(session.getID());
+        if(m_wheels != null)
+        {
+            for(int i=0;i<m_wheels.length;i++)
+                m_wheels[i].stop();
+        }
+    }
+
+    /** End a session that has thrown an exception in its tick.
+     *  A broken game must not stop the other games of the stripe.
+     * @param session The session.
+     * @param e The exception. */
+    private void fail(Session session, Throwable e)
+    {
+        Quiz.Print("Session " + session.getID() + " failed: " + e);
+        evict(session.getID());
+    }
+
+    /** Run a session until it is evicted (THREAD_PER_SESSION mode).
+     * @param session The session. */
+    private void runSession(Session session)
+    {
+        try
+        {
+            session.m_controller.runLoop();
+        }
+        catch(RuntimeException e)
+        {
+            fail(session, e);
+        }
+        catch(AssertionError e)
+        {
+            fail(session, e);
+        }
+    }
+
+    /** Create the thread factory for THREAD_PER_SESSION mode. Virtual
+     *  threads need Java 21, the game is compiled for older versions, so
+     *  Thread.ofVirtual() is looked up by reflection.
+     * @return Factory for virtual threads or for daemon platform threads with a small stack. */
+    private static ThreadFactory createSessionThreadFactory()
+    {
+        try
+        {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "QuizSession ", Long.valueOf(1));
+            return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+        }
+        catch(Exception e)
+        {
+            Quiz.Print("No virtual threads (" + e + "), the sessions use platform threads");
+        }
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(null, r, "QuizSession", SESSION_STACK_SIZE);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /** Update all sessions of a stripe.
+     * @param stripe Sessions of the stripe. */
+    private void tick(ConcurrentHashMap<Long, Session> stripe)
+    {
+        long start = System.nanoTime();
+        long time = System.currentTimeMillis();
+        for(Session session : stripe.values())
+        {
+            try
+            {
+                session.m_controller.tick(time);
+            }
+            catch(RuntimeException e)
+            {
+                fail(session, e);
+            }
+            catch(AssertionError e)
+            {
+                fail(session, e);
+            }
+        }
+        long duration = System.nanoTime() - start;
+        long max;
+        while(duration > (max = m_maxTickTime.get()) && !m_maxTickTime.compareAndSet(max, duration))
+        {
+        }
+    }
+}
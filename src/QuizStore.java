@@ -0,0 +1,701 @@
+package javaquiz;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/** Embedded, page based question store on the local disk.
+ *
+ * All languages of the quiz are kept in one store file. The file is
+ * divided into pages of PAGE_SIZE bytes, which are read on demand and
+ * kept in a small LRU page cache, so only the pages that are used are
+ * in memory. There are three indexes, each a sorted array of fixed size
+ * entries (three int keys and a record pointer) over consecutive pages:
+ *
+ *      primary index:    (language, id)            -> record
+ *      difficulty index: (language, difficulty, id) -> record
+ *      category index:   (category, language, id)   -> record
+ *
+ * The primary index is also the language index. A lookup is a binary
+ * search over the index pages, a random question of a level is a random
+ * entry in the (language, difficulty) range of the difficulty index, so
+ * no query scans the questions. Everything runs offline, no server is
+ * needed.
+ *
+ * The store is created in one go (see create() and the migration tool in
+ * main()) and then only read. Delta files (see QuizDBDelta) are not
+ * applied to a store: to change questions, update the databases and
+ * create the store again.
+ * As QuizQuestionSource, the database name of a language (e.g. "en.qdb")
+ * selects the questions of that language.
+ *
+ * Layout of the header page (page 0):
+ * <pre>
+ *      int MAGIC, short VERSION, short 0, int PAGE_SIZE, int record count,
+ *      int first page of the primary, difficulty and category index,
+ *      int first page and byte length of the category table,
+ *      int first data page
+ * </pre>
+ * A record does not cross a page boundary:
+ * <pre>
+ *      int id, byte language, byte difficulty, byte correct answer, short category,
+ *      5 x (short length, UTF-8 bytes): question and answers
+ * </pre>
+ */
+public class QuizStore implements QuizQuestionSource
+{
+    /** File magic number: "QZST". */
+    public final static int MAGIC = 0x515A5354;
+    /** Current format version. */
+    public final static short VERSION = 1;
+    /** Page size in bytes. A record pointer is (page << PAGE_BITS) | offset. */
+    public final static int PAGE_SIZE = 8192;
+    /** Bits of the offset in a record pointer. */
+    private final static int PAGE_BITS = 13;
+    /** Size of an index entry: three keys and the record pointer. */
+    private final static int ENTRY_SIZE = 16;
+    /** Index entries per page. */
+    private final static int ENTRIES_PER_PAGE = PAGE_SIZE/ENTRY_SIZE;
+    /** How many pages are kept in memory. */
+    private final static int CACHE_PAGES = 256;
+    /** Category name for questions without category (e.g. migrated from a .qdb file). */
+    public final static String DEFAULT_CATEGORY = "general";
+
+    /** The store file. */
+    private final RandomAccessFile m_file;
+    /** Number of records. */
+    private final int m_count;
+    /** First page of each index. */
+    private final int m_primaryIndex, m_difficultyIndex, m_categoryIndex;
+    /** Category names, the index is the category number. */
+    private final String[] m_categories;
+    /** LRU page cache (page number -> content). */
+    private final LinkedHashMap<Integer, byte[]> m_pages;
+    /** Random generator for the question selection. */
+    private final Random m_random = new Random();
+
+    /** Open a store file.
+     * @param file Store file, see create().
+     * @throws IOException if the file can't be read or has an invalid format. */
+    public QuizStore(File file) throws IOException
+    {
+        m_file = new RandomAccessFile(file, "r");
+        m_pages = new LinkedHashMap<Integer, byte[]>(CACHE_PAGES, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest)
+            {
+                return size() > CACHE_PAGES;
+            }
+        };
+
+        try
+        {
+            ByteBuffer header = ByteBuffer.wrap(getPage(0));
+            if(header.getInt(0) != MAGIC || header.getShort(4) != VERSION || header.getInt(8) != PAGE_SIZE)
+                throw new IOException("Not a quiz store or unsupported version: " + file.getPath());
+            m_count = header.getInt(12);
+            m_primaryIndex = header.getInt(16);
+            m_difficultyIndex = header.getInt(20);
+            m_categoryIndex = header.getInt(24);
+            int categoryPage = header.getInt(28);
+            int categoryLength = header.getInt(32);
+
+            byte[] table = new byte[categoryLength];
+            m_file.seek((long)categoryPage*PAGE_SIZE);
+            m_file.readFully(table);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(table));
+            m_categories = new String[in.readInt()];
+            for(int i=0;i<m_categories.length;i++)
+                m_categories[i] = in.readUTF();
+        }
+        catch(IOException e)
+        {
+            m_file.close();
+            throw e;
+        }
+        Quiz.Print("Opened quiz store: " + file.getPath() + " (" + m_count + " questions)");
+    }
+
+    /** Close the store file. */
+    public void close()
+    {
+        try
+        {
+            synchronized(this)
+            {
+                m_file.close();
+            }
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("Failed to close quiz store.");
+        }
+    }
+
+    /** Draws a random set of questions, one question per difficulty level.
+     * @param langID Language of the questions.
+     * @return Array of questions. Empty if something fails. */
+    public QuizQuestion[] getRandomQuestions(QuizLanguage.LanguageID langID)
+    {
+        int maxQuestions = QuizDB.getMaxDifficulty();
+        QuizQuestion[] questions = new QuizQuestion[maxQuestions];
+        int questionsFound = 0;
+        int lang = langID.ordinal();
+
+        try
+        {
+            for(int i=1;i<=maxQuestions;i++) // foreach difficulty level
+            {
+                QuizQuestion q = drawQuestion(lang, i);
+                if(q != null)
+                    questions[questionsFound++] = q;
+            }
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("QuizStore: Failed to read questions: " + e.getLocalizedMessage());
+            return new QuizQuestion[0];
+        }
+        return Arrays.copyOf(questions, questionsFound);
+    }
+
+    /** Draws one random question of a difficulty level.
+     * @param langID Language of the question.
+     * @param difficulty Difficulty level (1..max).
+     * @return Question object or null if there is no question for this level. */
+    public QuizQuestion getRandomQuestion(QuizLanguage.LanguageID langID, int difficulty)
+    {
+        try
+        {
+            return drawQuestion(langID.ordinal(), difficulty);
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("QuizStore: Failed to read question: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /** Select a random entry in the (language, difficulty) range of the difficulty index.
+     * @param lang Language number.
+     * @param difficulty Difficulty level.
+     * @return Question object or null if there is no question for this level.
+     * @throws IOException if the store can't be read. */
+    private QuizQuestion drawQuestion(int lang, int difficulty) throws IOException
+    {
+        int low = lowerBound(m_difficultyIndex, lang, difficulty, Integer.MIN_VALUE);
+        int high = lowerBound(m_difficultyIndex, lang, difficulty+1, Integer.MIN_VALUE);
+        if(low == high)
+            return null; // no question for this level
+        int entry = low + m_random.nextInt(high-low);
+        return readRecord(getEntry(m_difficultyIndex, entry, 3));
+    }
+
+    /** Loads a specific set of questions (e.g. the same questions in another language).
+     * @param langID Language of the questions.
+     * @param ids Question ids (the array is not modified).
+     * @return Array of questions, sorted by difficulty. Empty if something fails. */
+    public QuizQuestion[] getSpecificQuestions(QuizLanguage.LanguageID langID, int[] ids)
+    {
+        QuizQuestion[] qarray = new QuizQuestion[ids.length];
+        int questionsFound = 0;
+        int lang = langID.ordinal();
+
+        try
+        {
+            for(int i=0;i<ids.length;i++)
+            {
+                int entry = lowerBound(m_primaryIndex, lang, ids[i], Integer.MIN_VALUE);
+                if(entry < m_count &&
+                   getEntry(m_primaryIndex, entry, 0) == lang &&
+                   getEntry(m_primaryIndex, entry, 1) == ids[i])
+                {
+                    qarray[questionsFound++] = readRecord(getEntry(m_primaryIndex, entry, 3));
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("QuizStore: Failed to read questions: " + e.getLocalizedMessage());
+            return new QuizQuestion[0];
+        }
+
+        qarray = Arrays.copyOf(qarray, questionsFound);
+        Arrays.sort(qarray, new QuizDB.QuestionComparator());
+        return qarray;
+    }
+
+    /** How many questions of a language and difficulty level are in the store.
+     * @param langID Language.
+     * @param difficulty Difficulty level.
+     * @return Question count. */
+    public int getQuestionCount(QuizLanguage.LanguageID langID, int difficulty)
+    {
+        try
+        {
+            int lang = langID.ordinal();
+            return lowerBound(m_difficultyIndex, lang, difficulty+1, Integer.MIN_VALUE) -
+                   lowerBound(m_difficultyIndex, lang, difficulty, Integer.MIN_VALUE);
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("QuizStore: Failed to read index: " + e.getLocalizedMessage());
+            return 0;
+        }
+    }
+
+    public QuizQuestion[] getRandomQuestions(String database)
+    {
+        QuizLanguage.LanguageID langID = getLanguageID(database);
+        return (langID == null) ? new QuizQuestion[0] : getRandomQuestions(langID);
+    }
+
+    public QuizQuestion getRandomQuestion(String database, int difficulty)
+    {
+        QuizLanguage.LanguageID langID = getLanguageID(database);
+        return (langID == null) ? null : getRandomQuestion(langID, difficulty);
+    }
+
+    public QuizQuestion[] getSpecificQuestions(String database, int[] ids)
+    {
+        QuizLanguage.LanguageID langID = getLanguageID(database);
+        return (langID == null) ? new QuizQuestion[0] : getSpecificQuestions(langID, ids);
+    }
+
+    public int getQuestionCount(String database, int difficulty)
+    {
+        QuizLanguage.LanguageID langID = getLanguageID(database);
+        return (langID == null) ? 0 : getQuestionCount(langID, difficulty);
+    }
+
+    /** Find the language of a database name (QuizQuestionSource interface).
+     * @param database Database name, e.g. "en.qdb" (see QuizLanguage.StringID.DATABASEFILE).
+     * @return Language or null if no language uses this database. */
+    private static QuizLanguage.LanguageID getLanguageID(String database)
+    {
+        for(QuizLanguage.LanguageID langID : QuizLanguage.LanguageID.values())
+        {
+            if(QuizLanguage.getLanguage(langID).getString(QuizLanguage.StringID.DATABASEFILE).equals(database))
+                return langID;
+        }
+        Quiz.Print("QuizStore: Unknown database " + database);
+        return null;
+    }
+
+    /** Get the names of all categories in the store.
+     * @return Category names. */
+    public String[] getCategories()
+    {
+        return m_categories.clone();
+    }
+
+    /** Get all questions of a category.
+     * @param langID Language.
+     * @param category Category name.
+     * @return Array of questions, sorted by id. Empty if the category is unknown. */
+    public QuizQuestion[] getQuestionsOfCategory(QuizLanguage.LanguageID langID, String category)
+    {
+        int cat = Arrays.asList(m_categories).indexOf(category);
+        if(cat < 0)
+            return new QuizQuestion[0];
+        try
+        {
+            int lang = langID.ordinal();
+            int low = lowerBound(m_categoryIndex, cat, lang, Integer.MIN_VALUE);
+            int high = lowerBound(m_categoryIndex, cat, lang+1, Integer.MIN_VALUE);
+            QuizQuestion[] questions = new QuizQuestion[high-low];
+            for(int i=low;i<high;i++)
+                questions[i-low] = readRecord(getEntry(m_categoryIndex, i, 3));
+            return questions;
+        }
+        catch(IOException e)
+        {
+            Quiz.Print("QuizStore: Failed to read questions: " + e.getLocalizedMessage());
+            return new QuizQuestion[0];
+        }
+    }
+
+    /** Binary search for the first index entry that is not smaller than the key.
+     * @param firstPage First page of the index.
+     * @param k0 First key.
+     * @param k1 Second key.
+     * @param k2 Third key.
+     * @return Entry number (m_count if all entries are smaller).
+     * @throws IOException if the index can't be read. */
+    private int lowerBound(int firstPage, int k0, int k1, int k2) throws IOException
+    {
+        int low = 0;
+        int high = m_count;
+        while(low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if(compareEntry(firstPage, mid, k0, k1, k2) < 0)
+                low = mid+1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /** Compare an index entry with a key.
+     * @param firstPage First page of the index.
+     * @param entry Entry number.
+     * @param k0 First key.
+     * @param k1 Second key.
+     * @param k2 Third key.
+     * @return Negative if the entry is smaller, 0 if equal, positive if larger.
+     * @throws IOException if the index can't be read. */
+    private int compareEntry(int firstPage, int entry, int k0, int k1, int k2) throws IOException
+    {
+        ByteBuffer page = ByteBuffer.wrap(getPage(firstPage + entry/ENTRIES_PER_PAGE));
+        int pos = (entry%ENTRIES_PER_PAGE)*ENTRY_SIZE;
+        int c = compare(page.getInt(pos), k0);
+        if(c == 0)
+            c = compare(page.getInt(pos+4), k1);
+        if(c == 0)
+            c = compare(page.getInt(pos+8), k2);
+        return c;
+    }
+
+    /** Read a field of an index entry.
+     * @param firstPage First page of the index.
+     * @param entry Entry number.
+     * @param field 0..2 for the keys, 3 for the record pointer.
+     * @return Field value.
+     * @throws IOException if the index can't be read. */
+    private int getEntry(int firstPage, int entry, int field) throws IOException
+    {
+        ByteBuffer page = ByteBuffer.wrap(getPage(firstPage + entry/ENTRIES_PER_PAGE));
+        return page.getInt((entry%ENTRIES_PER_PAGE)*ENTRY_SIZE + 4*field);
+    }
+
+    /** Read a question record.
+     * @param pointer Record pointer from an index.
+     * @return Question object.
+     * @throws IOException if the record can't be read. */
+    private QuizQuestion readRecord(int pointer) throws IOException
+    {
+        ByteBuffer page = ByteBuffer.wrap(getPage(pointer >>> PAGE_BITS));
+        page.position(pointer & (PAGE_SIZE-1));
+        int id = page.getInt();
+        page.get(); // language
+        int difficulty = page.get();
+        int correctAnswer = page.get();
+        page.getShort(); // category
+        String[] text = new String[QuizDBBinary.STRINGS];
+        for(int i=0;i<text.length;i++)
+        {
+            byte[] utf8 = new byte[page.getShort() & 0xFFFF];
+            page.get(utf8);
+            text[i] = new String(utf8, QuizDBBinary.UTF8);
+        }
+        return new QuizQuestion(id, difficulty, text[0], text[1], text[2], text[3], text[4], correctAnswer);
+    }
+
+    /** Get a page from the cache or the file.
+     * @param page Page number.
+     * @return Page content (don't modify it).
+     * @throws IOException if the page can't be read. */
+    private synchronized byte[] getPage(int page) throws IOException
+    {
+        Integer key = Integer.valueOf(page);
+        byte[] data = m_pages.get(key);
+        if(data == null)
+        {
+            data = new byte[PAGE_SIZE];
+            m_file.seek((long)page*PAGE_SIZE);
+            // the last page of the file may be shorter
+            int n = 0;
+            while(n < PAGE_SIZE)
+            {
+                int r = m_file.read(data, n, PAGE_SIZE-n);
+                if(r < 0)
+                    break;
+                n += r;
+            }
+            m_pages.put(key, data);
+        }
+        return data;
+    }
+
+    /** Compare two ints.
+     * @param a First value.
+     * @param b Second value.
+     * @return -1, 0 or 1. */
+    private static int compare(int a, int b)
+    {
+        return (a < b) ? -1 : ((a == b) ? 0 : 1);
+    }
+
+    /** A question with language and category, for create(). */
+    public static class Entry
+    {
+        /** Language of the question. */
+        public final QuizLanguage.LanguageID language;
+        /** Category name. */
+        public final String category;
+        /** The question. */
+        public final QuizQuestion question;
+
+        /** Constructor.
+         * @param language Language of the question.
+         * @param category Category name.
+         * @param question The question. */
+        public Entry(QuizLanguage.LanguageID language, String category, QuizQuestion question)
+        {
+            this.language = language;
+            this.category = category;
+            this.question = question;
+        }
+    }
+
+    /** Create a store file.
+     * @param file Store file (overwritten).
+     * @param entries All questions of the store. A question with a record larger than a page is skipped.
+     *        The id of a question must be unique within its language (primary key).
+     * @return Number of stored questions.
+     * @throws IOException if the file can't be written or an id is used twice in a language. */
+    public static int create(File file, List<Entry> entries) throws IOException
+    {
+        // categories and records
+        List<String> categories = new ArrayList<String>();
+        List<byte[]> records = new ArrayList<byte[]>();
+        List<int[]> keys = new ArrayList<int[]>(); // {language, difficulty, id, category}
+        Set<Long> primaryKeys = new HashSet<Long>();
+        for(Entry e : entries)
+        {
+            long primaryKey = ((long)e.language.ordinal() << 32) | (e.question.getID() & 0xFFFFFFFFL);
+            if(!primaryKeys.add(Long.valueOf(primaryKey)))
+                throw new IOException("Question " + e.question.getID() + " (" + e.language + ") is used twice.");
+            int cat = categories.indexOf(e.category);
+            if(cat < 0)
+            {
+                cat = categories.size();
+                categories.add(e.category);
+            }
+            byte[] record = encodeRecord(e, cat);
+            if(record == null || record.length > PAGE_SIZE)
+            {
+                Quiz.Print("QuizStore: Question " + e.question.getID() + " is too large, skipped.");
+                continue;
+            }
+            records.add(record);
+            keys.add(new int[] {e.language.ordinal(), e.question.getDifficulty(), e.question.getID(), cat});
+        }
+        int count = records.size();
+
+        ByteArrayOutputStream categoryTable = new ByteArrayOutputStream();
+        DataOutputStream cout = new DataOutputStream(categoryTable);
+        cout.writeInt(categories.size());
+        for(String name : categories)
+            cout.writeUTF(name);
+        cout.flush();
+
+        int indexPages = (count + ENTRIES_PER_PAGE-1)/ENTRIES_PER_PAGE;
+        int primaryIndex = 1;
+        int difficultyIndex = primaryIndex + indexPages;
+        int categoryIndex = difficultyIndex + indexPages;
+        int categoryPage = categoryIndex + indexPages;
+        int dataPage = categoryPage + (categoryTable.size() + PAGE_SIZE-1)/PAGE_SIZE;
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try
+        {
+            out.setLength(0);
+
+            // data pages: records are packed, a record never crosses a page boundary
+            int[] pointers = new int[count];
+            int page = dataPage;
+            int offset = 0;
+            ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+            for(int i=0;i<count;i++)
+            {
+                byte[] record = records.get(i);
+                if(offset + record.length > PAGE_SIZE)
+                {
+                    writePage(out, page++, buffer);
+                    offset = 0;
+                }
+                pointers[i] = (page << PAGE_BITS) | offset;
+                buffer.position(offset);
+                buffer.put(record);
+                offset += record.length;
+            }
+            writePage(out, page, buffer);
+            if((long)page << PAGE_BITS > Integer.MAX_VALUE)
+                throw new IOException("Too many questions for one quiz store.");
+
+            // the three indexes
+            writeIndex(out, primaryIndex, keys, pointers, new int[] {0, 2, -1});
+            writeIndex(out, difficultyIndex, keys, pointers, new int[] {0, 1, 2});
+            writeIndex(out, categoryIndex, keys, pointers, new int[] {3, 0, 2});
+
+            out.seek((long)categoryPage*PAGE_SIZE);
+            out.write(categoryTable.toByteArray());
+
+            ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).putShort((short)0);
+            header.putInt(PAGE_SIZE).putInt(count);
+            header.putInt(primaryIndex).putInt(difficultyIndex).putInt(categoryIndex);
+            header.putInt(categoryPage).putInt(categoryTable.size());
+            header.putInt(dataPage);
+            writePage(out, 0, header);
+        }
+        finally
+        {
+            out.close();
+        }
+        return count;
+    }
+
+    /** Encode a question record.
+     * @param e The question.
+     * @param category Category number.
+     * @return Record bytes, null if a text is too long for its length field. */
+    private static byte[] encodeRecord(Entry e, int category)
+    {
+        QuizQuestion q = e.question;
+        byte[][] text = new byte[QuizDBBinary.STRINGS][];
+        int size = 4+1+1+1+2;
+        for(int i=0;i<text.length;i++)
+        {
+            text[i] = (i == 0 ? q.getQuestion() : q.getAnswer(i-1)).getBytes(QuizDBBinary.UTF8);
+            if(text[i].length > 0xFFFF)
+                return null;
+            size += 2 + text[i].length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.putInt(q.getID());
+        record.put((byte)e.language.ordinal());
+        record.put((byte)q.getDifficulty());
+        record.put((byte)q.getCorrectAnswer());
+        record.putShort((short)category);
+        for(int i=0;i<text.length;i++)
+        {
+            record.putShort((short)text[i].length);
+            record.put(text[i]);
+        }
+        return record.array();
+    }
+
+    /** Write a sorted index.
+     * @param out Store file.
+     * @param firstPage First page of the index.
+     * @param keys Record keys {language, difficulty, id, category}.
+     * @param pointers Record pointers.
+     * @param fields Which keys make up the index entry (-1: always 0). */
+    private static void writeIndex(RandomAccessFile out, int firstPage, final List<int[]> keys,
+                                   int[] pointers, final int[] fields) throws IOException
+    {
+        Integer[] order = new Integer[keys.size()];
+        for(int i=0;i<order.length;i++)
+            order[i] = Integer.valueOf(i);
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b)
+            {
+                for(int f=0;f<fields.length;f++)
+                {
+                    int c = QuizStore.compare(key(a.intValue(), f), key(b.intValue(), f));
+                    if(c != 0)
+                        return c;
+                }
+                return 0;
+            }
+            private int key(int record, int f)
+            {
+                return (fields[f] < 0) ? 0 : keys.get(record)[fields[f]];
+            }
+        });
+
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        int page = firstPage;
+        for(int i=0;i<order.length;i++)
+        {
+            int record = order[i].intValue();
+            int[] k = keys.get(record);
+            for(int f=0;f<fields.length;f++)
+                buffer.putInt((fields[f] < 0) ? 0 : k[fields[f]]);
+            buffer.putInt(pointers[record]);
+            if(!buffer.hasRemaining())
+            {
+                writePage(out, page++, buffer);
+                buffer.clear();
+            }
+        }
+        if(buffer.position() > 0)
+            writePage(out, page, buffer);
+    }
+
+    /** Write a page and clear the buffer.
+     * @param out Store file.
+     * @param page Page number.
+     * @param buffer Page content. */
+    private static void writePage(RandomAccessFile out, int page, ByteBuffer buffer) throws IOException
+    {
+        out.seek((long)page*PAGE_SIZE);
+        out.write(buffer.array(), 0, PAGE_SIZE);
+        Arrays.fill(buffer.array(), (byte)0);
+        buffer.clear();
+    }
+
+    /** Migration tool: creates a store from question databases (text or binary).
+     *
+     *      java -cp quiz.jar javaquiz.QuizStore quiz.store ENGLISH=en.qdb GERMAN=de.qdb:history
+     *
+     * Each argument after the store file is LANGUAGE=file, optionally
+     * followed by ":category" (default: DEFAULT_CATEGORY). The question id
+     * is the line number in its database, so there can only be one
+     * database per language: merge the databases of several categories
+     * first. The databases of the languages must have the same lines, so
+     * that an id selects the same question in each language.
+     * @param args Store file and databases. */
+    public static void main(String[] args)
+    {
+        if(args.length < 2)
+        {
+            System.out.println("Usage: java -cp quiz.jar javaquiz.QuizStore <store file> <LANGUAGE>=<db file>[:category] ...");
+            System.out.println("       One database per language, the question ids (line numbers) must be unique.");
+            System.exit(1);
+        }
+
+        List<Entry> entries = new ArrayList<Entry>();
+        try
+        {
+            for(int i=1;i<args.length;i++)
+            {
+                int eq = args[i].indexOf('=');
+                if(eq < 0)
+                    throw new IOException("Invalid argument: " + args[i]);
+                QuizLanguage.LanguageID langID = QuizLanguage.LanguageID.valueOf(args[i].substring(0, eq));
+                String fileName = args[i].substring(eq+1);
+                String category = DEFAULT_CATEGORY;
+                int colon = fileName.lastIndexOf(':');
+                if(colon > 1) // not a drive letter
+                {
+                    category = fileName.substring(colon+1);
+                    fileName = fileName.substring(0, colon);
+                }
+
+                InputStream in = new FileInputStream(fileName);
+                try
+                {
+                    QuizQuestion[] questions = QuizDB.loadAllQuestions(in, fileName, null);
+                    for(int j=0;j<questions.length;j++)
+                        entries.add(new Entry(langID, category, questions[j]));
+                    Quiz.Print("Read " + questions.length + " questions from " + fileName);
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+
+            int count = create(new File(args[0]), entries);
+            Quiz.Print("Created " + args[0] + " with " + count + " questions.");
+        }
+        catch(Exception e)
+        {
+            Quiz.Print("QuizStore: Migration failed: " + e.getLocalizedMessage());
+            System.exit(1);
+        }
+    }
+}
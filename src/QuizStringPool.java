@@ -0,0 +1,386 @@
+package javaquiz;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+
+/** Pool for the answer strings of the loaded databases.
+ *
+ * A database repeats many answers (years, countries, "Yes"/"No"), and
+ * the databases of the languages share many more (names, numbers). The
+ * loaders ask the pool for the answer strings, so equal answers share
+ * one String object. The pool looks up the characters directly in the
+ * buffer of QuizDBParser, so a String is only created for an answer
+ * that is not in the pool yet.
+ *
+ * QuizDBCache keeps one pool per database generation: all languages and
+ * all chunks of a parallel load (see QuizDBParallelLoader) use it. When
+ * the cache replaces or drops a database, it starts a new pool with the
+ * answers of the other databases, so the pool never holds strings of a
+ * database that has been replaced. The pool is thread safe, the table
+ * is split into segments with their own locks. The question texts are
+ * not pooled, they are (almost) unique. Draws in the LoadMode.STREAMING
+ * mode and the question tables of the servers (see QuizTableSource)
+ * don't use a pool.
+ *
+ * The memory saved is the size of the String objects (and their arrays)
+ * that are not created. It follows the HotSpot layout of the running VM:
+ * object header and reference size, and one byte per character for
+ * Latin-1 text with compact strings (Java 9 and later).
+ */
+public class QuizStringPool
+{
+    /** Number of segments (power of 2). */
+    private final static int SEGMENT_BITS = 4;
+    /** Initial table size of a segment (power of 2). */
+    private final static int INITIAL_SIZE = 1 << 6;
+
+    /** Size of a String object without its array [bytes]. */
+    private final static int STRING_SIZE;
+    /** Offset of the first element of a byte or char array [bytes]. */
+    private final static int ARRAY_BASE;
+    /** Strings with Latin-1 text use one byte per character. */
+    private final static boolean COMPACT_STRINGS;
+    static
+    {
+        List<String> options = getVMOptions();
+        int version = getJavaVersion();
+        boolean is64 = !"32".equals(System.getProperty("sun.arch.data.model"));
+        boolean compressedOops = is64 && !options.contains("-XX:-UseCompressedOops") &&
+                                 Runtime.getRuntime().maxMemory() < (32L << 30);
+        int header = 8;
+        if(is64 && !options.contains("-XX:+UseCompactObjectHeaders"))
+            header = (compressedOops && !options.contains("-XX:-UseCompressedClassPointers")) ? 12 : 16;
+        int reference = compressedOops || !is64 ? 4 : 8;
+
+        // value reference, hash; offset and count up to Java 6; coder since Java 9; hashIsZero since Java 13
+        int fields = reference + 4;
+        if(version <= 6)
+            fields += 8;
+        else if(version >= 13)
+            fields += 2;
+        else if(version >= 9)
+            fields += 1;
+        STRING_SIZE = align(header + fields);
+        ARRAY_BASE = (header == 16) ? 24 : header + 4;
+        COMPACT_STRINGS = version >= 9 && !options.contains("-XX:-CompactStrings");
+    }
+
+    /** A part of the pool with its own lock. */
+    private static class Segment
+    {
+        /** Hash table (open addressing, linear probing), null = empty slot. */
+        private String[] m_table = new String[INITIAL_SIZE];
+        /** Strings in the table. */
+        private int m_size = 0;
+        /** Number of lookups. */
+        private long m_lookups = 0;
+        /** Number of lookups that found a string in the pool. */
+        private long m_hits = 0;
+        /** Memory of the strings that have not been created [bytes]. */
+        private long m_savedBytes = 0;
+
+        /** Get the pooled string for a range of characters.
+         * @param hash String hash code of the characters.
+         * @param chars Characters.
+         * @param start First character.
+         * @param length Number of characters.
+         * @return Pooled string with this content. */
+        synchronized String intern(int hash, char[] chars, int start, int length)
+        {
+            m_lookups++;
+            int mask = m_table.length-1;
+            int slot = mix(hash) & mask;
+            String s;
+            while((s = m_table[slot]) != null)
+            {
+                if(s.hashCode() == hash && QuizStringPool.equals(s, chars, start, length))
+                {
+                    m_hits++;
+                    m_savedBytes += sizeOf(s);
+                    return s;
+                }
+                slot = (slot+1) & mask;
+            }
+            s = new String(chars, start, length);
+            add(slot, s);
+            return s;
+        }
+
+        /** Get the pooled string for a string.
+         * @param str String.
+         * @param count Count the lookup in the statistics?
+         * @return Pooled string with the same content, str if it is new. */
+        synchronized String intern(String str, boolean count)
+        {
+            int hash = str.hashCode();
+            if(count)
+                m_lookups++;
+            int mask = m_table.length-1;
+            int slot = mix(hash) & mask;
+            String s;
+            while((s = m_table[slot]) != null)
+            {
+                if(s.hashCode() == hash && s.equals(str))
+                {
+                    if(count)
+                    {
+                        m_hits++;
+                        m_savedBytes += sizeOf(s);
+                    }
+                    return s;
+                }
+                slot = (slot+1) & mask;
+            }
+            add(slot, str);
+            return str;
+        }
+
+        /** Add a new string to an empty slot, grow the table if it is half full.
+         * @param slot Empty slot from the lookup.
+         * @param s String. */
+        private void add(int slot, String s)
+        {
+            m_table[slot] = s;
+            m_size++;
+            if(2*m_size <= m_table.length)
+                return;
+
+            String[] old = m_table;
+            m_table = new String[old.length*2];
+            int mask = m_table.length-1;
+            for(int i=0;i<old.length;i++)
+            {
+                if(old[i] == null)
+                    continue;
+                int j = mix(old[i].hashCode()) & mask;
+                while(m_table[j] != null)
+                    j = (j+1) & mask;
+                m_table[j] = old[i];
+            }
+        }
+    }
+
+    /** Use pools for the next loads? */
+    private static volatile boolean m_enabled = true;
+    /** The segments, selected by the upper bits of the mixed hash. */
+    private final Segment[] m_segments = new Segment[1 << SEGMENT_BITS];
+
+    /** Create an empty pool, see create(). */
+    private QuizStringPool()
+    {
+        for(int i=0;i<m_segments.length;i++)
+            m_segments[i] = new Segment();
+    }
+
+    /** Enable or disable pooling (default: enabled). Affects the next loaded databases.
+     * @param enabled false: every answer gets its own String. */
+    public static void setEnabled(boolean enabled)
+    {
+        m_enabled = enabled;
+    }
+
+    /** Is pooling enabled?
+     * @return true if enabled. */
+    public static boolean isEnabled()
+    {
+        return m_enabled;
+    }
+
+    /** Create a pool.
+     * @return New pool or null if pooling is disabled. */
+    public static QuizStringPool create()
+    {
+        return m_enabled ? new QuizStringPool() : null;
+    }
+
+    /** Get the pooled string for a range of characters.
+     * @param chars Characters.
+     * @param start First character.
+     * @param length Number of characters.
+     * @return Pooled string with this content. */
+    public String intern(char[] chars, int start, int length)
+    {
+        int hash = 0;
+        for(int i=0;i<length;i++)
+            hash = 31*hash + chars[start+i];
+        return segment(hash).intern(hash, chars, start, length);
+    }
+
+    /** Get the pooled string for a string (used by the loaders that have no char buffer).
+     * @param str String.
+     * @return Pooled string with the same content, str if it is new. */
+    public String intern(String str)
+    {
+        return segment(str.hashCode()).intern(str, true);
+    }
+
+    /** Get a pooled string, if there is a pool.
+     * @param pool Pool or null.
+     * @param str String.
+     * @return Pooled string, str if pool is null. */
+    public static String intern(QuizStringPool pool, String str)
+    {
+        return (pool != null) ? pool.intern(str) : str;
+    }
+
+    /** Put a string into the pool without counting it in the statistics,
+     * e.g. an answer of a database that is already loaded.
+     * @param str String. */
+    public void add(String str)
+    {
+        segment(str.hashCode()).intern(str, false);
+    }
+
+    /** Pool statistics for the log.
+     * @return e.g. "String pool: 1200 strings, 5000 of 6200 lookups shared, 210 KB saved" */
+    public String getStatistics()
+    {
+        int size = 0;
+        long lookups = 0;
+        long hits = 0;
+        long saved = 0;
+        for(int i=0;i<m_segments.length;i++)
+        {
+            Segment segment = m_segments[i];
+            synchronized(segment)
+            {
+                size += segment.m_size;
+                lookups += segment.m_lookups;
+                hits += segment.m_hits;
+                saved += segment.m_savedBytes;
+            }
+        }
+        return "String pool: " + size + " strings, " + hits + " of " + lookups +
+               " lookups shared, " + saved/1024 + " KB saved";
+    }
+
+    /** Number of lookups that found a string in the pool.
+     * @return Hits. */
+    public long getHits()
+    {
+        long hits = 0;
+        for(int i=0;i<m_segments.length;i++)
+        {
+            synchronized(m_segments[i])
+            {
+                hits += m_segments[i].m_hits;
+            }
+        }
+        return hits;
+    }
+
+    /** Memory of the strings that have not been created because the
+     * pool had them (String objects and their arrays).
+     * @return Bytes. */
+    public long getSavedBytes()
+    {
+        long saved = 0;
+        for(int i=0;i<m_segments.length;i++)
+        {
+            synchronized(m_segments[i])
+            {
+                saved += m_segments[i].m_savedBytes;
+            }
+        }
+        return saved;
+    }
+
+    /** Heap size of a String and its array in this VM.
+     * @param s String.
+     * @return Bytes. */
+    public static long sizeOf(String s)
+    {
+        int length = s.length();
+        int bytesPerChar = 1;
+        if(!COMPACT_STRINGS)
+            bytesPerChar = 2;
+        else
+        {
+            for(int i=0;i<length;i++)
+            {
+                if(s.charAt(i) > 0xFF)
+                {
+                    bytesPerChar = 2;
+                    break;
+                }
+            }
+        }
+        return STRING_SIZE + align(ARRAY_BASE + (long)length*bytesPerChar);
+    }
+
+    /** Select the segment of a hash code.
+     * @param hash String hash code.
+     * @return The segment. */
+    private Segment segment(int hash)
+    {
+        return m_segments[mix(hash) >>> (32-SEGMENT_BITS)];
+    }
+
+    /** Compare a string with a range of characters.
+     * @param s String.
+     * @param chars Characters.
+     * @param start First character.
+     * @param length Number of characters.
+     * @return true if equal. */
+    private static boolean equals(String s, char[] chars, int start, int length)
+    {
+        if(s.length() != length)
+            return false;
+        for(int i=0;i<length;i++)
+        {
+            if(s.charAt(i) != chars[start+i])
+                return false;
+        }
+        return true;
+    }
+
+    /** Spread the bits of String.hashCode (similar hashes of short strings
+     *  would form long probe chains).
+     * @param hash Hash code.
+     * @return Mixed hash. */
+    private static int mix(int hash)
+    {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Round up to the object alignment (8 bytes).
+     * @param size Size in bytes.
+     * @return Aligned size. */
+    private static int align(long size)
+    {
+        return (int)((size + 7) & ~7L);
+    }
+
+    /** The options of the running VM, e.g. "-XX:-CompactStrings".
+     * @return Options, empty if they can't be read. */
+    private static List<String> getVMOptions()
+    {
+        try
+        {
+            return ManagementFactory.getRuntimeMXBean().getInputArguments();
+        }
+        catch(RuntimeException e) // e.g. a SecurityException
+        {
+            return Collections.emptyList();
+        }
+    }
+
+    /** The Java version of the running VM.
+     * @return e.g. 6 for "1.6", 17 for "17". */
+    private static int getJavaVersion()
+    {
+        String version = System.getProperty("java.specification.version", "1.6");
+        if(version.startsWith("1."))
+            version = version.substring(2);
+        try
+        {
+            return Integer.parseInt(version);
+        }
+        catch(NumberFormatException e)
+        {
+            return 6;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package javaquiz;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Question source that keeps each database as QuizQuestionTable.
+ *
+ * The databases are loaded like in QuizDB (database directory first,
+ * then the jar, text or binary) and converted to a column table once.
+ * All draws run on the table columns and don't take a lock.
+ *
+ * Usage:
+ *
+ *      QuizModel model = new QuizModel(new QuizTableSource());
+ */
+public class QuizTableSource implements QuizQuestionSource
+{
+    /** Loaded tables (file name -> table). */
+    private final ConcurrentHashMap<String, QuizQuestionTable> m_tables =
+        new ConcurrentHashMap<String, QuizQuestionTable>();
+    /** Random generator for the question selection (Random is thread safe). */
+    private final Random m_random = new Random();
+
+    /** Constructor. */
+    public QuizTableSource()
+    {
+    }
+
+    public QuizQuestion[] getRandomQuestions(String database)
+    {
+        return getTable(database).getRandomQuestions(m_random);
+    }
+
+    public QuizQuestion getRandomQuestion(String database, int difficulty)
+    {
+        return getTable(database).getRandomQuestion(difficulty, m_random);
+    }
+
+    public QuizQuestion[] getSpecificQuestions(String database, int[] ids)
+    {
+        return getTable(database).getSpecificQuestions(ids);
+    }
+
+    public int getQuestionCount(String database, int difficulty)
+    {
+        return getTable(database).getQuestionCount(difficulty);
+    }
+
+    /** Forget a table, the next call loads the database again.
+     * @param database Database file name. */
+    public void invalidate(String database)
+    {
+        m_tables.remove(database);
+    }
+
+    /** Get the table of a database, load it if necessary.
+     * @param database Database file name.
+     * @return Table (empty if the database can't be loaded). */
+    private QuizQuestionTable getTable(String database)
+    {
+        QuizQuestionTable table = m_tables.get(database);
+        if(table != null)
+            return table;
+        synchronized(this) // only one thread loads a database
+        {
+            table = m_tables.get(database);
+            if(table == null)
+            {
+                table = new QuizQuestionTable(QuizDB.loadAllQuestions(database, null),
+                                              QuizDB.getMaxDifficulty());
+                Quiz.Print("QuizTableSource: " + database + " (" + table.getQuestionCount() + " questions)");
+                if(table.getQuestionCount() > 0) // try again next time
+                    m_tables.put(database, table);
+            }
+            return table;
+        }
+    }
+}
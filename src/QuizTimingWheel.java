@@ -0,0 +1,291 @@
+package javaquiz;
+
+/** Hierarchical timing wheel for many timeouts on one thread.
+ *
+ * A timeout is put into a slot of a wheel by its deadline: wheel 0 has
+ * 64 slots of TICK ms, each slot of wheel 1 covers a whole turn of wheel
+ * 0 (64 * TICK ms), and so on. Scheduling and cancelling are O(1). When
+ * wheel 0 has made a full turn, the timeouts of the next slot of wheel 1
+ * are moved down into wheel 0 (cascading), so a timeout moves at most
+ * LEVELS-1 times before it fires.
+ *
+ * There is no fixed tick: the thread sleeps until the next slot that has
+ * a timeout (or the next cascade, if only the upper wheels have
+ * timeouts), and without timeouts it waits until one is scheduled. So
+ * idle games cost no CPU time. A timeout fires exactly once, at most
+ * TICK ms late, unless it has been cancelled. The tasks run on the
+ * wheel thread, one after the other, so they must be short.
+ *
+ * Usage:
+ *
+ *      QuizTimingWheel wheel = new QuizTimingWheel("Game timeouts");
+ *      QuizTimingWheel.Timeout t = wheel.schedule(4000, task);
+ *      t.cancel(); // if the task is not needed anymore
+ */
+public class QuizTimingWheel
+{
+    /** Resolution of the wheel in [ms]. */
+    public final static int TICK = 10;
+    /** Slots per wheel (power of 2). */
+    private final static int SLOT_BITS = 6;
+    /** Slots per wheel. */
+    private final static int SLOTS = 1 << SLOT_BITS;
+    /** Number of wheels, wheel 3 covers 64^4 ticks (about 190 days). */
+    private final static int LEVELS = 4;
+
+    /** A scheduled task. */
+    public class Timeout
+    {
+        /** Tick of the deadline. */
+        private final long m_deadline;
+        /** The task. */
+        private final Runnable m_task;
+        /** Wheel of the slot, -1 if not scheduled anymore (fired or cancelled). */
+        private int m_level = -1;
+        /** Slot in the wheel. */
+        private int m_slot;
+        /** Previous timeout in the slot. */
+        private Timeout m_prev;
+        /** Next timeout in the slot. */
+        private Timeout m_next;
+
+        /** Create a timeout.
+         * @param deadline Tick of the deadline.
+         * @param task The task. */
+        Timeout(long deadline, Runnable task)
+        {
+            m_deadline = deadline;
+            m_task = task;
+        }
+
+        /** Cancel the timeout.
+         * @return false if the task has already been started or cancelled. */
+        public boolean cancel()
+        {
+            synchronized(QuizTimingWheel.this)
+            {
+                if(m_level < 0)
+                    return false;
+                remove(this);
+                return true;
+            }
+        }
+    }
+
+    /** Timeout lists of the slots: [wheel][slot]. */
+    private final Timeout[][] m_wheels = new Timeout[LEVELS][SLOTS];
+    /** Number of timeouts in each wheel. */
+    private final int[] m_counts = new int[LEVELS];
+    /** Start time of tick 0 in [ms]. */
+    private final long m_start;
+    /** All timeouts before this tick have fired. */
+    private long m_currentTick = 0;
+    /** Set by stop(). */
+    private boolean m_stopped = false;
+    /** The wheel thread. */
+    private final Thread m_thread;
+
+    /** Create a wheel and start its thread.
+     * @param name Thread name. */
+    public QuizTimingWheel(String name)
+    {
+        m_start = System.currentTimeMillis();
+        m_thread = new Thread(new Runnable() {
+            public void run()
+            {
+                loop();
+            }
+        }, name);
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    /** Run a task after a delay.
+     * @param delay Delay in [ms].
+     * @param task The task, it runs on the wheel thread.
+     * @return Timeout object to cancel the task. */
+    public synchronized Timeout schedule(long delay, Runnable task)
+    {
+        long now = System.currentTimeMillis();
+        // round up, the task must not run early
+        long deadline = (Math.max(0, now + delay - m_start) + TICK-1) / TICK;
+        Timeout t = new Timeout(deadline, task);
+        place(t);
+        notify(); // the thread might sleep longer than this deadline
+        return t;
+    }
+
+    /** Number of scheduled timeouts.
+     * @return Timeout count. */
+    public synchronized int size()
+    {
+        int count = 0;
+        for(int level=0;level<LEVELS;level++)
+            count += m_counts[level];
+        return count;
+    }
+
+    /** Stop the wheel thread. Scheduled tasks don't run anymore. */
+    public synchronized void stop()
+    {
+        m_stopped = true;
+        notify();
+    }
+
+    /** The wheel thread. */
+    private void loop()
+    {
+        Timeout expired = null;
+        while(true)
+        {
+            // run the expired tasks without the lock, they can schedule new timeouts
+            for(Timeout t=expired;t!=null;t=t.m_next)
+            {
+                try
+                {
+                    t.m_task.run();
+                }
+                catch(Throwable e)
+                {
+                    Quiz.Print("QuizTimingWheel: Task failed: " + e);
+                }
+            }
+
+            synchronized(this)
+            {
+                expired = null;
+                try
+                {
+                    while(!m_stopped && expired == null)
+                    {
+                        long nowTick = (System.currentTimeMillis() - m_start) / TICK;
+                        if(size() == 0)
+                            m_currentTick = Math.max(m_currentTick, nowTick+1); // nothing to do for the past
+                        while(m_currentTick <= nowTick)
+                            expired = advance(expired);
+                        if(expired != null)
+                            break;
+
+                        long next = nextTick();
+                        if(next < 0)
+                            wait(); // no timeouts
+                        else
+                            wait(Math.max(1, m_start + next*TICK - System.currentTimeMillis()));
+                    }
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+                if(m_stopped)
+                    return;
+            }
+        }
+    }
+
+    /** Process the slot of the current tick and go to the next tick.
+     *  The caller holds the lock.
+     * @param expired List of expired timeouts.
+     * @return List with the timeouts of this tick added. */
+    private Timeout advance(Timeout expired)
+    {
+        long tick = m_currentTick;
+        // a turn of wheel 0 is complete: move the timeouts of the upper wheels down
+        if((tick & (SLOTS-1)) == 0)
+            cascade(1, tick);
+
+        int slot = (int)(tick & (SLOTS-1));
+        Timeout t = m_wheels[0][slot];
+        while(t != null)
+        {
+            Timeout next = t.m_next;
+            if(t.m_deadline <= tick)
+            {
+                remove(t);
+                t.m_next = expired;
+                expired = t;
+            }
+            t = next;
+        }
+        m_currentTick = tick+1;
+        return expired;
+    }
+
+    /** Move the timeouts of the current slot of a wheel down.
+     *  Cascades the next wheel first if this wheel has made a full turn.
+     * @param level Wheel (1..LEVELS-1).
+     * @param tick Current tick. */
+    private void cascade(int level, long tick)
+    {
+        int slot = (int)((tick >>> (SLOT_BITS*level)) & (SLOTS-1));
+        if(slot == 0 && level+1 < LEVELS)
+            cascade(level+1, tick);
+        Timeout t = m_wheels[level][slot];
+        while(t != null)
+        {
+            Timeout next = t.m_next;
+            remove(t);
+            place(t);
+            t = next;
+        }
+    }
+
+    /** Put a timeout into the slot for its deadline. The caller holds the lock.
+     * @param t The timeout. */
+    private void place(Timeout t)
+    {
+        long delta = Math.max(0, t.m_deadline - m_currentTick);
+        int level = 0;
+        while(level < LEVELS-1 && delta >= (1L << (SLOT_BITS*(level+1))))
+            level++;
+        long tick = Math.max(t.m_deadline, m_currentTick);
+        if(level == LEVELS-1 && delta >= (1L << (SLOT_BITS*LEVELS)))
+            tick = m_currentTick - 1; // too far away, wait for a full turn of the last wheel
+        int slot = (int)((tick >>> (SLOT_BITS*level)) & (SLOTS-1));
+
+        t.m_level = level;
+        t.m_slot = slot;
+        t.m_prev = null;
+        t.m_next = m_wheels[level][slot];
+        if(t.m_next != null)
+            t.m_next.m_prev = t;
+        m_wheels[level][slot] = t;
+        m_counts[level]++;
+    }
+
+    /** Remove a timeout from its slot. The caller holds the lock.
+     * @param t The timeout. */
+    private void remove(Timeout t)
+    {
+        if(t.m_prev != null)
+            t.m_prev.m_next = t.m_next;
+        else
+            m_wheels[t.m_level][t.m_slot] = t.m_next;
+        if(t.m_next != null)
+            t.m_next.m_prev = t.m_prev;
+        m_counts[t.m_level]--;
+        t.m_level = -1;
+        t.m_prev = null;
+        t.m_next = null;
+    }
+
+    /** The next tick when the thread has something to do. The caller holds the lock.
+     * @return Tick of the next non-empty slot of wheel 0 or of the next
+     *         cascade, -1 if there are no timeouts. */
+    private long nextTick()
+    {
+        // start of the next turn of wheel 0 (the current tick if its cascade is still pending)
+        long turn = (m_currentTick + SLOTS-1) & ~(long)(SLOTS-1);
+        if(m_counts[0] > 0)
+        {
+            // the next non-empty slot in this turn of wheel 0
+            for(long tick=m_currentTick;tick<turn;tick++)
+            {
+                if(m_wheels[0][(int)(tick & (SLOTS-1))] != null)
+                    return tick;
+            }
+        }
+        // timeouts in the next turn of wheel 0 or in the upper wheels
+        return (size() > 0) ? turn : -1;
+    }
+}
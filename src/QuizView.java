@@ -54,5 +54,15 @@ interface QuizView
      * @param forceRedraw Redraw the screen in any case. Mainly used by setLanguage.
      */
     public void update(QuizModel q, long time, float dt, boolean forceRedraw);
+
+    /**
+     * How long the view animates the current state. The controller only
+     * needs to call update() every frame during this time, afterwards the
+     * screen doesn't change until the next state change or command.
+     * @param q The current game state.
+     * @return Time since the state change in [s] until the animations are done,
+     *         0.0f if nothing is animated, Float.POSITIVE_INFINITY for endless animations.
+     */
+    public float getAnimationTime(QuizModel q);
 }
 
@@ -0,0 +1,67 @@
+package javaquiz;
+
+import javax.swing.event.EventListenerList;
+import java.awt.event.ActionListener;
+import java.awt.event.ActionEvent;
+
+/**
+ * A view without a screen, for games that are played over the network
+ * or in tests (see QuizSessionManager). It only remembers the language
+ * and passes commands to the controller with fireEvent(), exactly like
+ * the buttons of QuizViewSwing do.
+ */
+public class QuizViewHeadless implements QuizView
+{
+    /** Registered listeners (normally the QuizController). */
+    private final EventListenerList m_listeners = new EventListenerList();
+    /** Current language. */
+    private volatile QuizLanguage m_language = null;
+
+    /** Constructor. */
+    public QuizViewHeadless()
+    {
+    }
+
+    public void init()
+    {
+    }
+
+    public QuizLanguage getLanguage()
+    {
+        return m_language;
+    }
+
+    public void setLanguage(QuizLanguage language, QuizModel q)
+    {
+        m_language = language;
+    }
+
+    public void addViewListener(ActionListener l)
+    {
+        m_listeners.add(ActionListener.class, l);
+    }
+
+    public void removeViewListener(ActionListener l)
+    {
+        m_listeners.remove(ActionListener.class, l);
+    }
+
+    public void update(QuizModel q, long time, float dt, boolean forceRedraw)
+    {
+    }
+
+    public float getAnimationTime(QuizModel q)
+    {
+        return 0.0f; // nothing to animate
+    }
+
+    /** Send a command to the listeners, e.g. "button0" (see QuizView.BUTTON_ID_ANSWER_A),
+     * "restart" or "togglelanguage".
+     * @param cmd Command string. */
+    public void fireEvent(String cmd)
+    {
+        ActionListener[] listeners = m_listeners.getListeners(ActionListener.class);
+        for(int i=0;i<listeners.length;i++)
+            listeners[i].actionPerformed(new ActionEvent(this, 0, cmd));
+    }
+}
@@ -197,6 +197,35 @@ public class QuizViewSwing implements QuizView
         m_lastState = q.getState();
     }
 
+    /** How long the view animates the current state (see update()).
+     * @param q The current quiz model (=game state).
+     * @return Time since the state change in [s], Float.POSITIVE_INFINITY while particles are falling. */
+    public float getAnimationTime(QuizModel q)
+    {
+        QuizModel.QuizState state = q.getState();
+        // the particles of the glass pane fall until the game is over
+        if(state != QuizModel.QuizState.BEGIN && m_frame != null &&
+           ((QuizGlassPane)m_frame.getGlassPane()).isAnimating())
+            return Float.POSITIVE_INFINITY;
+
+        switch(state)
+        {
+            case BEGIN:
+                return 2.0f; // fade in of the intro screen
+            case WRONG_ANSWER:
+                return 0.5f; // button glow
+            case RIGHT_ANSWER:
+                return 1.0f; // button glow and scoreboard bar
+            case GAMEOVER:
+            case GAMEWON:
+                return 4.0f; // fade in
+            case JOKER_5050:
+                return 1.5f; // fade out of the eliminated answers
+            default:
+                return 0.0f;
+        }
+    }
+
     /** Create a new view window. */
     public void init()
     {
@@ -1463,6 +1492,13 @@ public class QuizViewSwing implements QuizView
         /** particle array */
         private GlassParticle[] m_particles;
 
+        /** Are there particles on the screen?
+         * @return true if update() moves particles. */
+        public boolean isAnimating()
+        {
+            return isVisible() && m_particles != null;
+        }
+
         /** Animate the glass pane. Set statetime to 0 to reset the animation.
          * @param statetime Time [s] of animation. */
         public void update(float statetime)